@@ -0,0 +1,144 @@
+package com.althink.android.ossw;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.View;
+import android.widget.TextView;
+
+import com.althink.android.ossw.service.CommandPriority;
+import com.althink.android.ossw.service.LinkMetrics;
+import com.althink.android.ossw.service.OsswService;
+import com.althink.android.ossw.service.ble.BleConnectionMode;
+
+import java.util.Locale;
+
+/**
+ * Shows statistics of the link to the watch, refreshed every second.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final int REFRESH_INTERVAL = 1000;
+
+    // commands which counts are shown
+    private static final int[] COMMANDS = {0x01, 0x10, 0x20, 0x21, 0x22, 0x30, 0x31, 0x40, 0x41, 0x42, 0x43, 0x44, 0x29};
+
+    private OsswService osswService;
+    private LinkMetrics linkMetrics;
+    private TextView diagnosticsView;
+    private Handler handler = new Handler();
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            OsswService.LocalBinder binder = (OsswService.LocalBinder) service;
+            osswService = binder.getService();
+            linkMetrics = binder.getLinkMetrics();
+            refresh();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            osswService = null;
+            linkMetrics = null;
+        }
+    };
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar_actionbar);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        toolbar.setNavigationOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                finish();
+            }
+        });
+
+        diagnosticsView = (TextView) findViewById(R.id.diagnostics);
+
+        bindService(new Intent(this, OsswService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refreshTask);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refreshTask);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(serviceConnection);
+    }
+
+    private void refresh() {
+        if (osswService == null || linkMetrics == null) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Status: ").append(osswService.getStatus()).append('\n');
+        sb.append(String.format(Locale.US, "Packets: %d (%.1f/s)\n", linkMetrics.getPackets(), linkMetrics.getPacketRate()));
+        sb.append(String.format(Locale.US, "Bytes: %d (%.1f/s)\n", linkMetrics.getBytes(), linkMetrics.getByteRate()));
+        sb.append("Failed writes: ").append(linkMetrics.getFailedWrites()).append('\n');
+        sb.append("Retries: ").append(linkMetrics.getRetries()).append('\n');
+        sb.append("ACK timeouts: ").append(linkMetrics.getTimeouts()).append('\n');
+
+        sb.append("\nACKs: ").append(linkMetrics.getAcks())
+                .append(", avg ").append(linkMetrics.getAverageAckLatency()).append(" ms")
+                .append(", max ").append(linkMetrics.getMaxAckLatency()).append(" ms\n");
+        long[] histogram = linkMetrics.getAckLatencyHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            String bucket = i < LinkMetrics.ACK_LATENCY_BUCKETS.length
+                    ? "<= " + LinkMetrics.ACK_LATENCY_BUCKETS[i] + " ms"
+                    : "> " + LinkMetrics.ACK_LATENCY_BUCKETS[i - 1] + " ms";
+            sb.append(String.format(Locale.US, "  %-10s %d\n", bucket, histogram[i]));
+        }
+
+        sb.append(String.format(Locale.US, "\nExt params flushes: %d, %.1f commands, avg %d ms, max %d ms\n",
+                linkMetrics.getExtParamsFlushes(), linkMetrics.getAverageExtParamsFlushCommands(),
+                linkMetrics.getAverageExtParamsFlushLatency(), linkMetrics.getMaxExtParamsFlushLatency()));
+
+        sb.append("\nQueue depth (current/max):\n");
+        for (CommandPriority priority : CommandPriority.values()) {
+            sb.append(String.format(Locale.US, "  %-12s %d/%d\n", priority,
+                    osswService.getCommandQueueDepth(priority), osswService.getMaxCommandQueueDepth(priority)));
+        }
+
+        sb.append("\nCommands:\n");
+        for (int command : COMMANDS) {
+            sb.append(String.format(Locale.US, "  0x%02X %d\n", command, linkMetrics.getCommandCount(command)));
+        }
+
+        sb.append("\nTransfer throughput:\n");
+        for (BleConnectionMode mode : BleConnectionMode.values()) {
+            sb.append(String.format(Locale.US, "  %-10s %d B/s\n", mode, osswService.getTransferThroughput(mode)));
+        }
+
+        diagnosticsView.setText(sb.toString());
+    }
+}
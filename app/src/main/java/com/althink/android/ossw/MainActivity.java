@@ -289,6 +289,9 @@ public class MainActivity extends AppCompatActivity implements NavigationDrawerC
             final Intent intent = new Intent(this, DeviceScanActivity.class);
             startActivityForResult(intent, SELECT_WATCH_REQUEST);
             return true;
+        } else if (id == R.id.action_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
         } else if (id == R.id.action_settings) {
             final Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
@@ -6,11 +6,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 
+import com.althink.android.ossw.plugins.PluginDefinition;
 import com.althink.android.ossw.service.WatchOperationContext;
 import com.althink.android.ossw.watchsets.WatchSetType;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -21,7 +23,7 @@ public class OsswDatabaseHelper extends SQLiteOpenHelper {
 
     // Database Info
     private static final String DATABASE_NAME = "OsswDB";
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
     private static OsswDatabaseHelper sInstance;
 
     // ...
@@ -59,6 +61,7 @@ public class OsswDatabaseHelper extends SQLiteOpenHelper {
         } else {
             db.execSQL("CREATE TABLE IF NOT EXISTS watchSets(id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, name TEXT NOT NULL,source BLOB NOT NULL, context BLOB NOT NULL, extWatchSetId INTEGER NOT NULL, type TEXT NOT NULL DEFAULT 'WATCH_FACE');");
         }
+        createPluginPackagesTable(db);
     }
 
     // Called when the database needs to be upgraded.
@@ -66,6 +69,13 @@ public class OsswDatabaseHelper extends SQLiteOpenHelper {
     // but the DATABASE_VERSION is different than the version of the database that exists on disk.
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            createPluginPackagesTable(db);
+        }
+    }
+
+    private void createPluginPackagesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS pluginPackages(packageName TEXT PRIMARY KEY NOT NULL, versionCode INTEGER NOT NULL, lastUpdateTime INTEGER NOT NULL, plugins BLOB NOT NULL);");
     }
 
 
@@ -161,6 +171,42 @@ public class OsswDatabaseHelper extends SQLiteOpenHelper {
         return updateStmt.executeUpdateDelete() > 0;
     }
 
+    public List<PluginPackageEntry> listPluginPackages() {
+        LinkedList<PluginPackageEntry> list = new LinkedList<>();
+
+        Gson gson = new GsonBuilder().create();
+        String sql = "SELECT packageName, versionCode, lastUpdateTime, plugins from pluginPackages";
+        Cursor cursor = getReadableDatabase().rawQuery(sql, null);
+
+        while (cursor.moveToNext()) {
+            PluginDefinition[] plugins = gson.fromJson(new String(cursor.getBlob(3)), PluginDefinition[].class);
+            list.add(new PluginPackageEntry(cursor.getString(0), cursor.getInt(1), cursor.getLong(2), new LinkedList<>(Arrays.asList(plugins))));
+        }
+        cursor.close();
+        return list;
+    }
+
+    public void putPluginPackage(PluginPackageEntry entry) {
+        Gson gson = new GsonBuilder().create();
+
+        String sql = "INSERT OR REPLACE INTO pluginPackages (packageName, versionCode, lastUpdateTime, plugins) VALUES(?,?,?,?)";
+        SQLiteStatement stmt = getWritableDatabase().compileStatement(sql);
+        stmt.clearBindings();
+        stmt.bindString(1, entry.getPackageName());
+        stmt.bindLong(2, entry.getVersionCode());
+        stmt.bindLong(3, entry.getLastUpdateTime());
+        stmt.bindBlob(4, gson.toJson(entry.getPlugins()).getBytes());
+        stmt.executeInsert();
+    }
+
+    public boolean deletePluginPackage(String packageName) {
+        String sql = "DELETE FROM pluginPackages WHERE packageName = ?";
+        SQLiteStatement stmt = getWritableDatabase().compileStatement(sql);
+        stmt.clearBindings();
+        stmt.bindString(1, packageName);
+        return stmt.executeUpdateDelete() > 0;
+    }
+
     public boolean isTableExists(SQLiteDatabase db, String tableName) {
         Cursor cursor = db.rawQuery("select DISTINCT tbl_name from sqlite_master where tbl_name = '"+tableName+"'", null);
         if(cursor!=null) {
@@ -0,0 +1,38 @@
+package com.althink.android.ossw.db;
+
+import com.althink.android.ossw.plugins.PluginDefinition;
+
+import java.util.List;
+
+/**
+ * Plugins of an installed package, as stored in the plugin catalog.
+ */
+public class PluginPackageEntry {
+    private String packageName;
+    private int versionCode;
+    private long lastUpdateTime;
+    private List<PluginDefinition> plugins;
+
+    public PluginPackageEntry(String packageName, int versionCode, long lastUpdateTime, List<PluginDefinition> plugins) {
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.lastUpdateTime = lastUpdateTime;
+        this.plugins = plugins;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public int getVersionCode() {
+        return versionCode;
+    }
+
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public List<PluginDefinition> getPlugins() {
+        return plugins;
+    }
+}
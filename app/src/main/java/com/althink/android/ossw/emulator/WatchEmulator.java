@@ -4,6 +4,7 @@ import com.althink.android.ossw.emulator.event.EmulatorEvent;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.renderer.ScreenRender;
 import com.althink.android.ossw.emulator.renderer.WatchSetRenderer;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.watchset.WatchSetEmulatorModel;
 import com.althink.android.ossw.emulator.watchset.WatchSetEmulatorParser;
 import com.althink.android.ossw.service.OsswService;
@@ -25,16 +26,58 @@ public class WatchEmulator {
 
     private WatchSetEmulatorModel watchSet;
 
-    public void render(LowLevelRenderer llr) {
+    // colors changed, all pixels have to be redrawn
+    private boolean fullRedraw = true;
+
+    // called when the screen has to be rendered before its next change time
+    private Runnable refreshListener;
+
+    public void setRefreshListener(Runnable refreshListener) {
+        this.refreshListener = refreshListener;
+    }
+
+    /**
+     * Requests rendering of a new frame, e.g. after a property of a plugin changed.
+     */
+    public void refresh() {
+        if (refreshListener != null) {
+            refreshListener.run();
+        }
+    }
+
+    /**
+     * @return Time in milliseconds at which the next frame should be rendered, {@link ChangeTimes#NEVER} if only on events.
+     */
+    public long getNextChangeTime(long now) {
+        return screenRenderer != null ? screenRenderer.getNextChangeTime(now) : ChangeTimes.NEVER;
+    }
+
+    /**
+     * Draws the changes since the previous frame.
+     *
+     * @return False if nothing changed.
+     */
+    public boolean render(LowLevelRenderer llr) {
         llr.setMode(colorsInverted, backlight);
-        llr.clearScreen();
-        if (screenRenderer != null) {
-            screenRenderer.render(llr);
+        if (screenRenderer == null) {
+            if (!fullRedraw) {
+                return false;
+            }
+            fullRedraw = false;
+            llr.clearScreen();
+            llr.flush();
+            return true;
+        }
+        if (fullRedraw) {
+            fullRedraw = false;
+            screenRenderer.invalidate();
         }
+        return screenRenderer.render(llr);
     }
 
     public void handleEvent(EmulatorEvent event) {
         screenRenderer.handleEvent(event);
+        refresh();
     }
 
     public WatchSetEmulatorModel parseWatchSet(CompiledWatchSet watchSet) {
@@ -47,14 +90,19 @@ public class WatchEmulator {
 
         this.watchSet = watchSet;
         screenRenderer = new WatchSetRenderer(watchSet, this);
+        refresh();
     }
 
     public void toggleBacklight() {
         backlight = !backlight;
+        fullRedraw = true;
+        refresh();
     }
 
     public void toggleColors() {
         colorsInverted = !colorsInverted;
+        fullRedraw = true;
+        refresh();
     }
 
     public Object getExternalProperty(int property) {
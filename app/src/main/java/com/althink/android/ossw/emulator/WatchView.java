@@ -3,6 +3,8 @@ package com.althink.android.ossw.emulator;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -14,11 +16,13 @@ import com.althink.android.ossw.emulator.control.EmulatorControl;
 import com.althink.android.ossw.emulator.control.NumberEmulatorControl;
 import com.althink.android.ossw.emulator.control.digits.GeneratedDigits;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.internal.Hour12InternalEmulatorDataSource;
 import com.althink.android.ossw.emulator.source.internal.Hour24InternalEmulatorDataSource;
 import com.althink.android.ossw.emulator.source.internal.MinutesInternalEmulatorDataSource;
 import com.althink.android.ossw.emulator.watchset.WatchSetEmulatorModel;
 import com.althink.android.ossw.emulator.watchset.WatchSetScreenEmulatorModel;
+import com.althink.android.ossw.service.OsswService;
 import com.althink.android.ossw.watch.WatchConstants;
 
 import java.util.LinkedList;
@@ -32,15 +36,50 @@ public class WatchView extends View {
     private WatchEmulator watchEmulator;
 
     private Handler viewHandler = new Handler();
-    private Runnable updateView = new Runnable() {
+    // frames are rendered only while the view is attached to a visible window
+    private volatile boolean attached = false;
+    private volatile boolean windowVisible = true;
+
+    private Runnable renderFrame = new Runnable() {
+        @Override
+        public void run() {
+            //long startTime = System.currentTimeMillis();
+            if (watchEmulator.render(renderer)) {
+                // the view is redrawn only if the frame changed
+                WatchView.this.invalidate();
+            }
+            //Log.i("RENDER", "Render time: " + (System.currentTimeMillis() - startTime));
+
+            // next frame when a data source changes, events request frames by refresh
+            long now = System.currentTimeMillis();
+            long nextChangeTime = watchEmulator.getNextChangeTime(now);
+            if (nextChangeTime != ChangeTimes.NEVER) {
+                viewHandler.postDelayed(this, Math.max(0, nextChangeTime - now));
+            }
+        }
+    };
+
+    private final Runnable refreshListener = new Runnable() {
         @Override
         public void run() {
-            WatchView.this.invalidate();
+            updateRendering();
+        }
+    };
+
+    private final OsswService.PluginPropertyListener pluginPropertyListener = new OsswService.PluginPropertyListener() {
+        @Override
+        public void onPropertyChange(String pluginId) {
+            refreshListener.run();
         }
     };
 
     private int[] frameBuffer = new int[WatchConstants.SCREEN_WIDTH * WatchConstants.SCREEN_HEIGHT];
     private Bitmap bitmap = Bitmap.createBitmap(WatchConstants.SCREEN_WIDTH, WatchConstants.SCREEN_HEIGHT, Bitmap.Config.ARGB_8888);
+    private LowLevelRenderer renderer = new LowLevelRenderer(frameBuffer, bitmap);
+
+    private Paint paint = new Paint();
+    private Rect bitmapRect = new Rect(0, 0, WatchConstants.SCREEN_WIDTH, WatchConstants.SCREEN_HEIGHT);
+    private Rect viewRect = new Rect();
 
     public WatchView(Context context) {
         super(context);
@@ -50,6 +89,7 @@ public class WatchView extends View {
         super(context, attrs);
 
         watchEmulator = new WatchEmulator();
+        watchEmulator.setRefreshListener(refreshListener);
 
         List<EmulatorControl> controls = new LinkedList<>();
         //controls.add(new NumberEmulatorControl(NumberEmulatorControl.NumberRange.NUMBER_RANGE_0__99, 5, 4, 3, false, new GeneratedDigits(20, 20, 8), new Hour24InternalEmulatorDataSource()));
@@ -61,16 +101,48 @@ public class WatchView extends View {
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        //long startTime = System.currentTimeMillis();
-        LowLevelRenderer renderer = new LowLevelRenderer(canvas, frameBuffer, bitmap);
-        watchEmulator.render(renderer);
-        renderer.flush();
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        OsswService service = OsswService.getInstance();
+        if (service != null) {
+            service.addPluginPropertyListener(pluginPropertyListener);
+        }
+        updateRendering();
+    }
 
-        //long endTime = System.currentTimeMillis();
-        //Log.i("RENDER", "Total time: " + (endTime - startTime));
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        OsswService service = OsswService.getInstance();
+        if (service != null) {
+            service.removePluginPropertyListener(pluginPropertyListener);
+        }
+        updateRendering();
+    }
 
-        viewHandler.postDelayed(updateView, 300);
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        windowVisible = visibility == VISIBLE;
+        updateRendering();
+    }
+
+    /**
+     * Renders a frame now if the view is on-screen, otherwise stops rendering.
+     */
+    private void updateRendering() {
+        viewHandler.removeCallbacks(renderFrame);
+        if (attached && windowVisible) {
+            viewHandler.post(renderFrame);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        viewRect.set(0, 0, canvas.getClipBounds().right, canvas.getClipBounds().bottom);
+        canvas.drawBitmap(bitmap, bitmapRect, viewRect, paint);
     }
 
     public WatchEmulator getWatchEmulator() {
@@ -1,6 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
@@ -18,4 +19,9 @@ public abstract class AbstractEmulatorControl implements EmulatorControl {
     protected Object getData(DataSourceType type, int range, EmulatorExecutionContext ctx) {
         return dataSource.getData(type, range, ctx);
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return dataSource != null ? dataSource.getNextChangeTime(now) : ChangeTimes.NEVER;
+    }
 }
@@ -1,10 +1,13 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -14,12 +17,52 @@ import java.util.Map;
 public class ChooseEmulatorControl extends AbstractEmulatorControl {
 
     private Map<Object, List<EmulatorControl>> controlsMap;
+    private Rect bounds;
 
     public ChooseEmulatorControl(EmulatorDataSource dataSource, Map<Object, List<EmulatorControl>> controls) {
         super(dataSource);
         this.controlsMap = controls;
     }
 
+    @Override
+    public Rect getBounds() {
+        if (bounds == null) {
+            // any of the options may be drawn
+            bounds = new Rect();
+            for (List<EmulatorControl> controls : controlsMap.values()) {
+                for (EmulatorControl control : controls) {
+                    bounds.union(control.getBounds());
+                }
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        Integer data = (Integer) getData(DataSourceType.NUMBER, 0x40, ctx);
+        List<Object> fingerprint = new ArrayList<>();
+        fingerprint.add(data);
+        List<EmulatorControl> controls = controlsMap.get(data);
+        if (controls != null) {
+            for (EmulatorControl control : controls) {
+                fingerprint.add(control.getFingerprint(ctx));
+            }
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        long time = super.getNextChangeTime(now);
+        for (List<EmulatorControl> controls : controlsMap.values()) {
+            for (EmulatorControl control : controls) {
+                time = Math.min(time, control.getNextChangeTime(now));
+            }
+        }
+        return time;
+    }
+
     @Override
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         Integer data = (Integer) getData(DataSourceType.NUMBER, 0x40, ctx);
@@ -1,5 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 
@@ -9,4 +11,19 @@ import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 public interface EmulatorControl {
 
     void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx);
+
+    /**
+     * @return Area of the screen the control may draw on.
+     */
+    Rect getBounds();
+
+    /**
+     * @return Inputs of the control, equal fingerprints mean the control draws the same pixels.
+     */
+    Object getFingerprint(EmulatorExecutionContext ctx);
+
+    /**
+     * @return Time in milliseconds at which the control may change.
+     */
+    long getNextChangeTime(long now);
 }
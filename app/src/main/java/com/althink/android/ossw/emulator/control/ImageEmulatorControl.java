@@ -1,5 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
@@ -25,6 +27,18 @@ public class ImageEmulatorControl extends AbstractEmulatorControl {
         this.image = image;
     }
 
+    @Override
+    public Rect getBounds() {
+        byte[] data = image.getData();
+        return new Rect(x, y, x + (width != 0 ? width : 0xFF & data[2]), y + (height != 0 ? height : 0xFF & data[3]));
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        // static image
+        return image;
+    }
+
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         renderer.drawImage(image.getData(), x, y, width, height);
     }
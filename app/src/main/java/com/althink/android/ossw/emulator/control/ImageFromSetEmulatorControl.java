@@ -1,5 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
@@ -25,6 +27,17 @@ public class ImageFromSetEmulatorControl extends AbstractEmulatorControl {
         this.image = image;
     }
 
+    @Override
+    public Rect getBounds() {
+        byte[] data = image.getData();
+        return new Rect(x, y, x + (0xFF & data[4]), y + (0xFF & data[5]));
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        return getData(DataSourceType.NUMBER, 0, ctx);
+    }
+
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         Object value = getData(DataSourceType.NUMBER, 0, ctx);
         if (value == null) {
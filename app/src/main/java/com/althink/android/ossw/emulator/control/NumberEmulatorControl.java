@@ -1,5 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.control.digits.DigitsRenderer;
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
@@ -70,6 +72,22 @@ public class NumberEmulatorControl extends AbstractEmulatorControl {
         return result;
     }
 
+    @Override
+    public Rect getBounds() {
+        int decimalSize = range.getValue() & 0xF;
+        int digit_no = (range.getValue() >> 4) / 2 + 1 + decimalSize;
+        int width = digit_no * (digitsRenderer.getDigitWidth() + digitSpace);
+        if (decimalSize > 0) {
+            width += digitsRenderer.getDecimalSeparatorWidth() + digitSpace;
+        }
+        return new Rect(x, y, x + width, y + digitsRenderer.getDigitHeight());
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        return getData(DataSourceType.NUMBER, range.getValue(), ctx);
+    }
+
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         int decimalSize = range.getValue() & 0xF;
         Object value = getData(DataSourceType.NUMBER, range.getValue(), ctx);
@@ -1,5 +1,7 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
@@ -26,6 +28,16 @@ public class ProgressEmulatorControl extends AbstractEmulatorControl {
         this.style = style;
     }
 
+    @Override
+    public Rect getBounds() {
+        return new Rect(x, y, x + width, y + height);
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        return getData(DataSourceType.NUMBER, 0, ctx);
+    }
+
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         Object value = getData(DataSourceType.NUMBER, 0, ctx);
         if (value == null || !(value instanceof Integer)) {
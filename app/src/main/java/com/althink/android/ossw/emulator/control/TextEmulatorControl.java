@@ -1,10 +1,13 @@
 package com.althink.android.ossw.emulator.control;
 
+import android.graphics.Rect;
+
 import com.althink.android.ossw.emulator.fonts.FontInfo;
 import com.althink.android.ossw.emulator.fonts.OptionsBig;
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
 import com.althink.android.ossw.emulator.renderer.LowLevelRenderer;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
+import com.althink.android.ossw.watch.WatchConstants;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
 /**
@@ -26,6 +29,16 @@ public class TextEmulatorControl extends AbstractEmulatorControl {
         this.style = style;
     }
 
+    @Override
+    public Rect getBounds() {
+        return new Rect(x, y, width != 0 ? x + width : WatchConstants.SCREEN_WIDTH, height != 0 ? y + height : WatchConstants.SCREEN_HEIGHT);
+    }
+
+    @Override
+    public Object getFingerprint(EmulatorExecutionContext ctx) {
+        return getData(DataSourceType.STRING, 0, ctx);
+    }
+
     public void draw(LowLevelRenderer renderer, EmulatorExecutionContext ctx) {
         String value = (String) getData(DataSourceType.STRING, 0, ctx);
         int fontType = (style >> 24) & 0xFF;
@@ -11,4 +11,10 @@ public interface DigitsRenderer {
 
     int renderDecimalSeparator(LowLevelRenderer renderer, int x, int y);
 
+    int getDigitWidth();
+
+    int getDigitHeight();
+
+    int getDecimalSeparatorWidth();
+
 }
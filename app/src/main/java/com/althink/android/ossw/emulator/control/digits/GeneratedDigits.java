@@ -35,4 +35,19 @@ public class GeneratedDigits implements DigitsRenderer {
         renderer.drawRect(x, y + digitHeight - thickness, thickness, thickness);
         return thickness;
     }
+
+    @Override
+    public int getDigitWidth() {
+        return digitWidth;
+    }
+
+    @Override
+    public int getDigitHeight() {
+        return digitHeight;
+    }
+
+    @Override
+    public int getDecimalSeparatorWidth() {
+        return thickness;
+    }
 }
@@ -18,8 +18,8 @@ public class NumbersFontRenderer implements DigitsRenderer {
 
     @Override
     public int renderDigit(LowLevelRenderer renderer, int digit, int x, int y, boolean fullWidth, boolean drawZero) {
-        int digitWidth = resource.getData()[2];
-        int digitHeight = resource.getData()[3];
+        int digitWidth = getDigitWidth();
+        int digitHeight = getDigitHeight();
         if (digit != 0 || drawZero) {
             int idx = 4 + (((digitWidth + 7) / 8) * digitHeight * digit);
             renderer.drawBitmap(resource.getData(), idx, x, y, digitWidth, digitHeight, digitWidth);
@@ -31,4 +31,19 @@ public class NumbersFontRenderer implements DigitsRenderer {
     public int renderDecimalSeparator(LowLevelRenderer renderer, int x, int y) {
         return 0;
     }
+
+    @Override
+    public int getDigitWidth() {
+        return 0xFF & resource.getData()[2];
+    }
+
+    @Override
+    public int getDigitHeight() {
+        return 0xFF & resource.getData()[3];
+    }
+
+    @Override
+    public int getDecimalSeparatorWidth() {
+        return 0;
+    }
 }
@@ -12,6 +12,10 @@ public class FontInfo {
     CharInfoLookup[] charInfoLookup;
     byte[] fontBitmaps;
 
+    // dense tables indexed by char code up to maxChar, built once from the lookup blocks
+    CharInfo[] charTable;
+    int[] charWidths;
+
     public FontInfo(int height, char minChar, char maxChar, int charSpace, int spaceSize, CharInfoLookup[] charInfoLookup, byte[] fontBitmaps) {
         this.height = height;
         this.minChar = minChar;
@@ -20,6 +24,28 @@ public class FontInfo {
         this.spaceSize = spaceSize;
         this.charInfoLookup = charInfoLookup;
         this.fontBitmaps = fontBitmaps;
+        buildCharTables();
+    }
+
+    private void buildCharTables() {
+        charTable = new CharInfo[maxChar + 1];
+        charWidths = new int[maxChar + 1];
+        for (CharInfoLookup lookup : charInfoLookup) {
+            // the last block containing a char wins, as in the block scan
+            for (int c = Math.max(lookup.getMinChar(), minChar); c <= Math.min(lookup.getMaxChar(), maxChar); c++) {
+                charTable[c] = lookup.getCharTable()[c - lookup.getMinChar()];
+            }
+        }
+        for (int c = 0; c <= maxChar; c++) {
+            charWidths[c] = charTable[c] != null ? charTable[c].getWidth() : spaceSize;
+        }
+        // whitespace is drawn as space even if the font has a glyph for it
+        if (' ' <= maxChar) {
+            charWidths[' '] = spaceSize;
+        }
+        if ('\t' <= maxChar) {
+            charWidths['\t'] = spaceSize;
+        }
     }
 
     public int getHeight() {
@@ -46,6 +72,20 @@ public class FontInfo {
         return charInfoLookup;
     }
 
+    /**
+     * @return Glyph of the char or null if the font doesn't have it.
+     */
+    public CharInfo getCharInfo(char c) {
+        return c <= maxChar ? charTable[c] : null;
+    }
+
+    /**
+     * @return Width of the char, space size for whitespace and chars the font doesn't have.
+     */
+    public int getCharWidth(char c) {
+        return c <= maxChar ? charWidths[c] : spaceSize;
+    }
+
     public byte[] getFontBitmaps() {
         return fontBitmaps;
     }
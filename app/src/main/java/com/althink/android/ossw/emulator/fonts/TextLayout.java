@@ -0,0 +1,244 @@
+package com.althink.android.ossw.emulator.fonts;
+
+import com.althink.android.ossw.watch.WatchConstants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Line breaks of a text laid out in a box, the same way the watch does it. Layouts are cached by text, font,
+ * box size and flags, so drawing, measuring and paging the same text breaks the lines only once.
+ */
+public class TextLayout {
+
+    private static final int CACHE_SIZE = 32;
+
+    private static final Map<Key, TextLayout> cache = new LinkedHashMap<Key, TextLayout>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, TextLayout> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static class Key {
+        private final String text;
+        private final int ptr;
+        private final int fontType;
+        private final int width;
+        private final int height;
+        private final int flags;
+
+        private Key(String text, int ptr, int fontType, int width, int height, int flags) {
+            this.text = text;
+            this.ptr = ptr;
+            this.fontType = fontType;
+            this.width = width;
+            this.height = height;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return ptr == key.ptr && fontType == key.fontType && width == key.width && height == key.height
+                    && flags == key.flags && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + ptr;
+            result = 31 * result + fontType;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + flags;
+            return result;
+        }
+    }
+
+    private final String text;
+    private final FontInfo fontInfo;
+    private final int lineCount;
+    // index of the first and after the last drawn char of each line
+    private final int[] lineStart;
+    private final int[] lineEnd;
+    // position of each line relative to the box
+    private final int[] lineX;
+    private final int[] lineY;
+    private final int[] lineWidth;
+    private final int height;
+    private final int end;
+
+    private TextLayout(String text, FontInfo fontInfo, int lineCount, int[] lineStart, int[] lineEnd, int[] lineX,
+                       int[] lineY, int[] lineWidth, int height, int end) {
+        this.text = text;
+        this.fontInfo = fontInfo;
+        this.lineCount = lineCount;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.lineX = lineX;
+        this.lineY = lineY;
+        this.lineWidth = lineWidth;
+        this.height = height;
+        this.end = end;
+    }
+
+    /**
+     * @param ptr    Index of the first char to lay out.
+     * @param width  Width of the box, 0 for the rest of the screen.
+     * @param height Height of the box, 0 for the rest of the screen.
+     */
+    public static TextLayout layout(String text, int ptr, int startX, int startY, int width, int height, int fontType, int fontAlignment) {
+        if (width == 0) {
+            width = WatchConstants.SCREEN_WIDTH - startX;
+        }
+        if (height == 0) {
+            height = WatchConstants.SCREEN_HEIGHT - startY;
+        }
+        Key key = new Key(text, ptr, fontType & 0x1F, width, height, fontAlignment);
+        TextLayout layout;
+        synchronized (cache) {
+            layout = cache.get(key);
+        }
+        if (layout == null) {
+            layout = breakLines(text, ptr, width, height, FontUtils.resolveFont(fontType), fontAlignment);
+            synchronized (cache) {
+                cache.put(key, layout);
+            }
+        }
+        return layout;
+    }
+
+    private static TextLayout breakLines(String text, int ptr, int width, int height, FontInfo fontInfo, int fontAlignment) {
+        boolean multiline = (fontAlignment & WatchConstants.TEXT_FLAGS_MULTILINE) != 0;
+        boolean splitWord = (fontAlignment & WatchConstants.TEXT_FLAGS_SPLIT_WORD) != 0;
+
+        int capacity = multiline ? 4 : 1;
+        int[] lineStart = new int[capacity];
+        int[] lineEnd = new int[capacity];
+        int[] lineX = new int[capacity];
+        int[] lineY = new int[capacity];
+        int[] lineWidth = new int[capacity];
+        int lineCount = 0;
+
+        int prevPtr = ptr;
+        int y = 0;
+        int lastY = 0;
+        boolean lastLine;
+        do {
+            lastLine = !multiline || (y + 2 * fontInfo.getHeight() + fontInfo.getCharSpace() > height);
+
+            int textWidth = FontUtils.calcTextWidth(text, ptr, fontInfo, splitWord || !multiline, width);
+
+            int x = 0;
+            if ((fontAlignment & WatchConstants.HORIZONTAL_ALIGN_CENTER) != 0) {
+                x += (width - textWidth) / 2;
+            } else if ((fontAlignment & WatchConstants.HORIZONTAL_ALIGN_RIGHT) != 0) {
+                x += (width - textWidth);
+            }
+            int startX = x;
+            int maxX = x + textWidth;
+
+            boolean firstChar = true;
+            int start = ptr;
+            int drawnEnd = -1;
+            char c = 0;
+            while (ptr < text.length()) {
+                c = text.charAt(ptr++);
+                if (firstChar && FontUtils.isWhitespace(c)) {
+                    start = ptr;
+                    continue;
+                }
+                firstChar = false;
+                int charWidth = FontUtils.calcCharWidth(c, fontInfo);
+                if (x + charWidth > maxX) {
+                    //overflow
+                    ptr = prevPtr;
+                    break;
+                }
+
+                x += charWidth;
+                x += fontInfo.getCharSpace();
+                prevPtr = ptr;
+                drawnEnd = ptr;
+            }
+            if (ptr == text.length()) {
+                lastLine = true;
+            }
+
+            if (lineCount == lineStart.length) {
+                lineStart = grow(lineStart);
+                lineEnd = grow(lineEnd);
+                lineX = grow(lineX);
+                lineY = grow(lineY);
+                lineWidth = grow(lineWidth);
+            }
+            lineStart[lineCount] = start;
+            lineEnd[lineCount] = drawnEnd >= 0 ? drawnEnd : start;
+            lineX[lineCount] = startX;
+            lineY[lineCount] = y;
+            lineWidth[lineCount] = textWidth;
+            lineCount++;
+
+            lastY = y + fontInfo.getHeight();
+            y += fontInfo.getHeight() + (c == 11 ? fontInfo.getHeight() / 2 : fontInfo.getCharSpace());
+        } while (!lastLine);
+
+        return new TextLayout(text, fontInfo, lineCount, lineStart, lineEnd, lineX, lineY, lineWidth, lastY, ptr);
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public FontInfo getFontInfo() {
+        return fontInfo;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLineStart(int line) {
+        return lineStart[line];
+    }
+
+    public int getLineEnd(int line) {
+        return lineEnd[line];
+    }
+
+    public int getLineX(int line) {
+        return lineX[line];
+    }
+
+    public int getLineY(int line) {
+        return lineY[line];
+    }
+
+    public int getLineWidth(int line) {
+        return lineWidth[line];
+    }
+
+    /**
+     * @return Height of all the lines.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Index after the last laid out char, where the next page starts.
+     */
+    public int getEnd() {
+        return end;
+    }
+}
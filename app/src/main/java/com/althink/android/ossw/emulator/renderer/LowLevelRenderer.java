@@ -1,17 +1,18 @@
 package com.althink.android.ossw.emulator.renderer;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
 import android.util.Log;
 
 import com.althink.android.ossw.emulator.fonts.CharInfo;
 import com.althink.android.ossw.emulator.fonts.FontInfo;
 import com.althink.android.ossw.emulator.fonts.FontUtils;
+import com.althink.android.ossw.emulator.fonts.TextLayout;
 import com.althink.android.ossw.watch.WatchConstants;
 
+import java.util.Arrays;
+
 /**
  * Created by krzysiek on 14/06/15.
  */
@@ -19,15 +20,24 @@ public class LowLevelRenderer {
 
     private final static int BACKLIGHT_COLOR = 0xFF00308f;
 
-    private Paint paint = new Paint();
-    private Canvas canvas;
     private boolean inverted;
     private boolean backlight;
     private Bitmap bitmap;
     private int[] frameBuffer;
 
-    public LowLevelRenderer(Canvas canvas, int[] frameBuffer, Bitmap bitmap) {
-        this.canvas = canvas;
+    // area of the frame buffer which may be drawn on, kept in fields so drawing doesn't depend on android.graphics
+    private int clipLeft = 0;
+    private int clipTop = 0;
+    private int clipRight = WatchConstants.SCREEN_WIDTH;
+    private int clipBottom = WatchConstants.SCREEN_HEIGHT;
+
+    // 8 pixels for each value of a bitmap byte in the current colors, most significant bit first
+    private final int[] bytePixels = new int[256 * 8];
+    private int bytePixelsForeground;
+    private int bytePixelsBackground;
+    private boolean bytePixelsValid = false;
+
+    public LowLevelRenderer(int[] frameBuffer, Bitmap bitmap) {
         this.bitmap = bitmap;
         this.frameBuffer = frameBuffer;
     }
@@ -37,20 +47,43 @@ public class LowLevelRenderer {
         this.backlight = backlight;
     }
 
-    public void drawRect(int startX, int startY, int width, int height) {
-        if (startX + width >= WatchConstants.SCREEN_WIDTH) {
-            width = WatchConstants.SCREEN_WIDTH - startX;
+    /**
+     * Limits drawing to the area, null removes the limit.
+     */
+    public void setClip(Rect area) {
+        if (area == null) {
+            clipLeft = 0;
+            clipTop = 0;
+            clipRight = WatchConstants.SCREEN_WIDTH;
+            clipBottom = WatchConstants.SCREEN_HEIGHT;
+        } else {
+            clipLeft = Math.max(area.left, 0);
+            clipTop = Math.max(area.top, 0);
+            clipRight = Math.min(area.right, WatchConstants.SCREEN_WIDTH);
+            clipBottom = Math.min(area.bottom, WatchConstants.SCREEN_HEIGHT);
+            if (clipLeft >= clipRight || clipTop >= clipBottom) {
+                clipLeft = clipTop = clipRight = clipBottom = 0;
+            }
         }
-        if (startY + height >= WatchConstants.SCREEN_HEIGHT) {
-            height = WatchConstants.SCREEN_HEIGHT - startY;
+    }
+
+    public void drawRect(int startX, int startY, int width, int height) {
+        fillRect(startX, startY, width, height, getForegroundColor());
+    }
+
+    private void fillRect(int startX, int startY, int width, int height, int color) {
+        int minX = Math.max(startX, clipLeft);
+        int maxX = Math.min(startX + width, clipRight);
+        int minY = Math.max(startY, clipTop);
+        int maxY = Math.min(startY + height, clipBottom);
+        if (minX >= maxX) {
+            return;
         }
-        int foregroundColor = getForegroundColor();
-        for (int y = 0; y < height; y++) {
-            int p = (startY + y) * WatchConstants.SCREEN_WIDTH + startX;
-            for (int x = 0; x < width; x++) {
-                frameBuffer[p] = foregroundColor;
-                p++;
-            }
+        int p = minY * WatchConstants.SCREEN_WIDTH + minX;
+        int span = maxX - minX;
+        for (int y = minY; y < maxY; y++) {
+            Arrays.fill(frameBuffer, p, p + span, color);
+            p += WatchConstants.SCREEN_WIDTH;
         }
     }
 
@@ -65,20 +98,7 @@ public class LowLevelRenderer {
     }
 
     public void clearRect(int startX, int startY, int width, int height) {
-        if (startX + width >= WatchConstants.SCREEN_WIDTH) {
-            width = WatchConstants.SCREEN_WIDTH - startX;
-        }
-        if (startY + height >= WatchConstants.SCREEN_HEIGHT) {
-            height = WatchConstants.SCREEN_HEIGHT - startY;
-        }
-        int backgroundColor = getBackgroundColor();
-        for (int y = 0; y < height; y++) {
-            int p = (startY + y) * WatchConstants.SCREEN_WIDTH + startX;
-            for (int x = 0; x < width; x++) {
-                frameBuffer[p] = backgroundColor;
-                p++;
-            }
-        }
+        fillRect(startX, startY, width, height, getBackgroundColor());
     }
 
     public void drawDigit(int digit, int x, int y, int width, int height, int thickness) {
@@ -133,74 +153,43 @@ public class LowLevelRenderer {
     }
 
     public void drawText(String text, int startX, int startY, int width, int height, int fontType, int fontAlignment) {
-        FontInfo fontInfo = FontUtils.resolveFont(fontType);
         if (text != null) {
-
-            int ptr = 0;
-            int prevPtr = 0;
-            int x = startX;
-            int y = startY;
             if (width == 0) {
-                width = WatchConstants.SCREEN_WIDTH - x;
+                width = WatchConstants.SCREEN_WIDTH - startX;
             }
             if (height == 0) {
-                height = WatchConstants.SCREEN_HEIGHT - y;
+                height = WatchConstants.SCREEN_HEIGHT - startY;
             }
-            int maxY = y + height;
-            boolean multiline = (fontAlignment & WatchConstants.TEXT_FLAGS_MULTILINE) != 0;
-            boolean splitWord = (fontAlignment & WatchConstants.TEXT_FLAGS_SPLIT_WORD) != 0;
+            int maxY = startY + height;
 
+            TextLayout layout = TextLayout.layout(text, 0, startX, startY, width, height, fontType, fontAlignment);
+            int y = startY;
+            int offsetY = 0;
             if ((fontAlignment & WatchConstants.VERTICAL_ALIGN_CENTER) != 0) {
-                int calc_height = FontUtils.calcTextHeight(text, startX, startY, width, height, fontType, fontAlignment);
-                if (calc_height < height) {
-                    y += (height - calc_height) / 2;
+                if (layout.getHeight() < height) {
+                    offsetY = (height - layout.getHeight()) / 2;
                 }
             } else if ((fontAlignment & WatchConstants.VERTICAL_ALIGN_BOTTOM) != 0) {
-                int calc_height = FontUtils.calcTextHeight(text, startX, startY, width, height, fontType, fontAlignment);
-                if (calc_height < height) {
-                    y += height - calc_height;
+                if (layout.getHeight() < height) {
+                    offsetY = height - layout.getHeight();
                 }
             }
+            if (offsetY > 0) {
+                // less space left below the first line may break the lines differently
+                y += offsetY;
+                layout = TextLayout.layout(text, 0, startX, y, width, height - offsetY, fontType, fontAlignment);
+            }
 
-            boolean lastLine;
-            do {
-                lastLine = !multiline || (y + 2 * fontInfo.getHeight() + fontInfo.getCharSpace() > maxY);
-
-                int textWidth = FontUtils.calcTextWidth(text, ptr, fontInfo, splitWord || !multiline, width);
-
-                if ((fontAlignment & WatchConstants.HORIZONTAL_ALIGN_CENTER) != 0) {
-                    x += (width - textWidth) / 2;
-                } else if ((fontAlignment & WatchConstants.HORIZONTAL_ALIGN_RIGHT) != 0) {
-                    x += (width - textWidth);
-                }
-                int maxX = x + textWidth;
-
-                boolean firstChar = true;
-                char c = 0;
-                while (ptr < text.length()) {
-                    c = text.charAt(ptr++);
-                    if (firstChar && FontUtils.isWhitespace(c)) {
-                        continue;
-                    }
-                    firstChar = false;
-                    int charWidth = FontUtils.calcCharWidth(c, fontInfo);
-                    if (x + charWidth > maxX) {
-                        //overflow
-                        ptr = prevPtr;
-                        break;
-                    }
-
-                    x += drawChar(c, x, y, maxX - x, maxY - y, fontInfo);
+            FontInfo fontInfo = layout.getFontInfo();
+            for (int line = 0; line < layout.getLineCount(); line++) {
+                int x = startX + layout.getLineX(line);
+                int lineY = y + layout.getLineY(line);
+                int maxX = x + layout.getLineWidth(line);
+                for (int ptr = layout.getLineStart(line); ptr < layout.getLineEnd(line); ptr++) {
+                    x += drawChar(text.charAt(ptr), x, lineY, maxX - x, maxY - lineY, fontInfo);
                     x += fontInfo.getCharSpace();
-                    prevPtr = ptr;
-                }
-                if (ptr == text.length()) {
-                    lastLine = true;
                 }
-
-                x = startX;
-                y += fontInfo.getHeight() + (c == 11 ? fontInfo.getHeight() / 2 : fontInfo.getCharSpace());
-            } while (!lastLine);
+            }
         }
     }
 
@@ -223,25 +212,56 @@ public class LowLevelRenderer {
     }
 
     public void drawBitmap(byte[] bitmap, int offset, int posX, int posY, int width, int height, int bitmapWidth) {
-        if (posX + width >= WatchConstants.SCREEN_WIDTH) {
-            width = WatchConstants.SCREEN_WIDTH - posX;
-        }
-        if (posY + height >= WatchConstants.SCREEN_HEIGHT) {
-            height = WatchConstants.SCREEN_HEIGHT - posY;
+        int minX = Math.max(0, clipLeft - posX);
+        int maxX = Math.min(width, clipRight - posX);
+        int minY = Math.max(0, clipTop - posY);
+        int maxY = Math.min(height, clipBottom - posY);
+        if (minX >= maxX || minY >= maxY) {
+            return;
         }
-        int foregroundColor = getForegroundColor();
-        int backgroundColor = getBackgroundColor();
+        int[] pixels = getBytePixels(getForegroundColor(), getBackgroundColor());
         int bitmapByteWidth = (bitmapWidth + 7) / 8;
-        for (int y = 0; y < height; y++) {
-            int p = ((posY + y) * WatchConstants.SCREEN_WIDTH) + posX;
-            for (int x = 0; x < width; x++) {
-                boolean val = ((bitmap[offset + (bitmapByteWidth * y) + (x / 8)] >> (7 - (x % 8))) & 0x1) != 0;
-                frameBuffer[p] = val ? foregroundColor : backgroundColor;
-                p++;
+
+        // pixels taken from the first and the last byte of each row
+        int firstByte = minX >> 3;
+        int lastByte = (maxX - 1) >> 3;
+        int firstBit = minX & 7;
+        int headPixels = firstByte == lastByte ? maxX - minX : 8 - firstBit;
+        int tailPixels = firstByte == lastByte ? 0 : maxX - (lastByte << 3);
+
+        int rowOffset = offset + bitmapByteWidth * minY + firstByte;
+        int rowP = ((posY + minY) * WatchConstants.SCREEN_WIDTH) + posX + minX;
+        for (int y = minY; y < maxY; y++) {
+            int src = rowOffset;
+            int p = rowP;
+            System.arraycopy(pixels, ((bitmap[src++] & 0xFF) << 3) + firstBit, frameBuffer, p, headPixels);
+            p += headPixels;
+            for (int i = firstByte + 1; i < lastByte; i++) {
+                System.arraycopy(pixels, (bitmap[src++] & 0xFF) << 3, frameBuffer, p, 8);
+                p += 8;
             }
+            if (tailPixels > 0) {
+                System.arraycopy(pixels, (bitmap[src] & 0xFF) << 3, frameBuffer, p, tailPixels);
+            }
+            rowOffset += bitmapByteWidth;
+            rowP += WatchConstants.SCREEN_WIDTH;
         }
     }
 
+    private int[] getBytePixels(int foregroundColor, int backgroundColor) {
+        if (!bytePixelsValid || foregroundColor != bytePixelsForeground || backgroundColor != bytePixelsBackground) {
+            for (int b = 0; b < 256; b++) {
+                for (int bit = 0; bit < 8; bit++) {
+                    bytePixels[(b << 3) + bit] = ((b >> (7 - bit)) & 0x1) != 0 ? foregroundColor : backgroundColor;
+                }
+            }
+            bytePixelsForeground = foregroundColor;
+            bytePixelsBackground = backgroundColor;
+            bytePixelsValid = true;
+        }
+        return bytePixels;
+    }
+
     public void drawImage(byte[] image, int x, int y, int width, int height) {
         if (width == 0) {
             width = 0xFF&image[2];
@@ -252,11 +272,23 @@ public class LowLevelRenderer {
         drawBitmap(image, 4, x, y, width, height, (int) image[2] & 0xFF);
     }
 
+    /**
+     * Copies the whole frame buffer to the bitmap.
+     */
     public void flush() {
         //long startTime = System.currentTimeMillis();
         bitmap.setPixels(frameBuffer, 0, WatchConstants.SCREEN_WIDTH, 0, 0, WatchConstants.SCREEN_WIDTH, WatchConstants.SCREEN_HEIGHT);
-        canvas.drawBitmap(bitmap, new Rect(0, 0, WatchConstants.SCREEN_WIDTH, WatchConstants.SCREEN_HEIGHT), new Rect(0, 0, canvas.getClipBounds().right, canvas.getClipBounds().bottom), paint);
         //long endTime = System.currentTimeMillis();
         //Log.i("RENDER", "Flush time: " + (endTime - startTime));
     }
+
+    /**
+     * Copies the area of the frame buffer to the bitmap.
+     */
+    public void flush(Rect area) {
+        Rect r = new Rect(area);
+        if (r.intersect(0, 0, WatchConstants.SCREEN_WIDTH, WatchConstants.SCREEN_HEIGHT)) {
+            bitmap.setPixels(frameBuffer, r.top * WatchConstants.SCREEN_WIDTH + r.left, WatchConstants.SCREEN_WIDTH, r.left, r.top, r.width(), r.height());
+        }
+    }
 }
@@ -6,7 +6,22 @@ import com.althink.android.ossw.emulator.event.EmulatorEvent;
  * Created by krzysiek on 14/06/15.
  */
 public interface ScreenRender {
-    void render(LowLevelRenderer renderer);
+    /**
+     * Draws what changed since the previous frame and copies it to the bitmap.
+     *
+     * @return False if nothing changed, so the frame may be skipped.
+     */
+    boolean render(LowLevelRenderer renderer);
+
+    /**
+     * Makes the next frame redraw the whole screen.
+     */
+    void invalidate();
+
+    /**
+     * @return Time in milliseconds at which the screen may change.
+     */
+    long getNextChangeTime(long now);
 
     void handleEvent(EmulatorEvent event);
 }
@@ -1,13 +1,19 @@
 package com.althink.android.ossw.emulator.renderer;
 
+import android.graphics.Rect;
 import android.support.annotation.NonNull;
 
 import com.althink.android.ossw.emulator.WatchEmulator;
 import com.althink.android.ossw.emulator.actions.EmulatorAction;
 import com.althink.android.ossw.emulator.control.EmulatorControl;
 import com.althink.android.ossw.emulator.event.EmulatorEvent;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.watchset.WatchSetEmulatorModel;
 
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * Created by krzysiek on 14/06/15.
  */
@@ -16,16 +22,97 @@ public class WatchSetRenderer implements ScreenRender {
     private WatchSetEmulatorModel watchset;
     private WatchEmulator emulator;
 
+    // controls drawn in the previous frame and their fingerprints, null if the whole screen has to be redrawn
+    private List<EmulatorControl> lastControls;
+    private Object[] lastFingerprints;
+
     public WatchSetRenderer(WatchSetEmulatorModel watchset, WatchEmulator emulator) {
         this.watchset = watchset;
         this.emulator = emulator;
     }
 
     @Override
-    public void render(LowLevelRenderer renderer) {
+    public boolean render(LowLevelRenderer renderer) {
+        EmulatorExecutionContext ctx = buildCtx();
+        List<EmulatorControl> controls = watchset.getCurrentScreenControls();
+        Object[] fingerprints = new Object[controls.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = controls.get(i).getFingerprint(ctx);
+        }
+
+        if (controls != lastControls || fingerprints.length != lastFingerprints.length) {
+            // new screen
+            renderer.clearScreen();
+            for (EmulatorControl control : controls) {
+                control.draw(renderer, ctx);
+            }
+            renderer.flush();
+        } else {
+            List<Rect> dirtyRegions = new LinkedList<>();
+            for (int i = 0; i < fingerprints.length; i++) {
+                if (!equal(fingerprints[i], lastFingerprints[i])) {
+                    addDirtyRegion(dirtyRegions, controls.get(i).getBounds());
+                }
+            }
+            if (dirtyRegions.isEmpty()) {
+                return false;
+            }
+            // redraw all controls in changed regions, they may overlap
+            for (Rect region : dirtyRegions) {
+                renderer.setClip(region);
+                renderer.clearRect(region.left, region.top, region.width(), region.height());
+                for (EmulatorControl control : controls) {
+                    if (Rect.intersects(region, control.getBounds())) {
+                        control.draw(renderer, ctx);
+                    }
+                }
+                renderer.flush(region);
+            }
+            renderer.setClip(null);
+        }
+
+        lastControls = controls;
+        lastFingerprints = fingerprints;
+        return true;
+    }
+
+    @Override
+    public void invalidate() {
+        lastControls = null;
+    }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        long time = ChangeTimes.NEVER;
         for (EmulatorControl control : watchset.getCurrentScreenControls()) {
-            control.draw(renderer, buildCtx());
+            time = Math.min(time, control.getNextChangeTime(now));
         }
+        return time;
+    }
+
+    /**
+     * Adds the area to the regions, merging overlapping ones.
+     */
+    private static void addDirtyRegion(List<Rect> regions, Rect area) {
+        Rect region = new Rect(area);
+        boolean merged;
+        do {
+            merged = false;
+            Iterator<Rect> i = regions.iterator();
+            while (i.hasNext()) {
+                Rect other = i.next();
+                if (Rect.intersects(region, other)) {
+                    region.union(other);
+                    i.remove();
+                    merged = true;
+                }
+            }
+        } while (merged);
+        regions.add(region);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     @Override
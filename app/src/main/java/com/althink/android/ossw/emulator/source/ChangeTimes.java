@@ -0,0 +1,36 @@
+package com.althink.android.ossw.emulator.source;
+
+import java.util.Calendar;
+
+/**
+ * Times at which time based data sources change their values.
+ */
+public class ChangeTimes {
+
+    // the value changes only on events, e.g. a button press or a property change
+    public static final long NEVER = Long.MAX_VALUE;
+
+    public static long nextSecond(long now) {
+        return (now / 1000 + 1) * 1000;
+    }
+
+    public static long nextMinute(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MINUTE, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    public static long nextDay(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -21,4 +21,9 @@ public class EmulatorConvertedDataSource implements EmulatorDataSource {
     public Object getData(DataSourceType type, int range, EmulatorExecutionContext ctx) {
         return converter.convert(dataSource.getData(type, range, ctx));
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return dataSource.getNextChangeTime(now);
+    }
 }
@@ -9,4 +9,9 @@ import com.althink.android.ossw.watchsets.DataSourceType;
 public interface EmulatorDataSource {
 
     public Object getData(DataSourceType type, int range, EmulatorExecutionContext ctx);
+
+    /**
+     * @return Time in milliseconds at which the value may change, {@link ChangeTimes#NEVER} if it changes only on events.
+     */
+    public long getNextChangeTime(long now);
 }
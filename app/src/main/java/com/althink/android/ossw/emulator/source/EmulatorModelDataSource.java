@@ -23,4 +23,10 @@ public class EmulatorModelDataSource implements EmulatorDataSource {
         }
         return null;
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        // changed by actions
+        return ChangeTimes.NEVER;
+    }
 }
@@ -41,4 +41,10 @@ public class ExternalEmulatorDataSource implements EmulatorDataSource {
         }
         return value;
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        // the emulator is notified about property changes
+        return ChangeTimes.NEVER;
+    }
 }
@@ -23,4 +23,9 @@ public class StaticDataSource implements EmulatorDataSource {
         }
         return null;
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return ChangeTimes.NEVER;
+    }
 }
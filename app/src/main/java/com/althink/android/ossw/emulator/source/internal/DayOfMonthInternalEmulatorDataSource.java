@@ -1,6 +1,7 @@
 package com.althink.android.ossw.emulator.source.internal;
 
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
@@ -18,4 +19,9 @@ public class DayOfMonthInternalEmulatorDataSource implements EmulatorDataSource
         }
         return Calendar.getInstance().get(Calendar.DAY_OF_MONTH);
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return ChangeTimes.nextDay(now);
+    }
 }
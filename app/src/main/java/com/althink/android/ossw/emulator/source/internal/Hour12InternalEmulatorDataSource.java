@@ -1,6 +1,7 @@
 package com.althink.android.ossw.emulator.source.internal;
 
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
@@ -19,4 +20,9 @@ public class Hour12InternalEmulatorDataSource implements EmulatorDataSource {
         int h = Calendar.getInstance().get(Calendar.HOUR_OF_DAY) % 12;
         return h == 0 ? 12 : h;
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return ChangeTimes.nextMinute(now);
+    }
 }
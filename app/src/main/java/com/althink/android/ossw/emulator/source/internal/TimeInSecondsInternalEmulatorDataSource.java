@@ -1,6 +1,7 @@
 package com.althink.android.ossw.emulator.source.internal;
 
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
@@ -20,4 +21,9 @@ public class TimeInSecondsInternalEmulatorDataSource implements EmulatorDataSour
                 Calendar.getInstance().get(Calendar.MINUTE) * 60 +
                 Calendar.getInstance().get(Calendar.SECOND);
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        return ChangeTimes.nextSecond(now);
+    }
 }
@@ -1,6 +1,7 @@
 package com.althink.android.ossw.emulator.source.internal;
 
 import com.althink.android.ossw.emulator.renderer.EmulatorExecutionContext;
+import com.althink.android.ossw.emulator.source.ChangeTimes;
 import com.althink.android.ossw.emulator.source.EmulatorDataSource;
 import com.althink.android.ossw.watchsets.DataSourceType;
 
@@ -12,4 +13,10 @@ public class ZeroDataSource implements EmulatorDataSource {
     public Object getData(DataSourceType type, int range, EmulatorExecutionContext ctx) {
         return 0;
     }
+
+    @Override
+    public long getNextChangeTime(long now) {
+        // emulated value is constant
+        return ChangeTimes.NEVER;
+    }
 }
@@ -3,7 +3,7 @@ package com.althink.android.ossw.notifications.message;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
-import com.althink.android.ossw.emulator.fonts.FontUtils;
+import com.althink.android.ossw.emulator.fonts.TextLayout;
 import com.althink.android.ossw.service.OsswService;
 import com.althink.android.ossw.watch.WatchConstants;
 
@@ -54,6 +54,8 @@ public abstract class AbstractNotificationMessageBuilder implements Notification
     }
 
     protected String calculatePageContent(String text, int font, int ptr) {
-        return FontUtils.calcTextToDraw(text, ptr, 3, 3, WatchConstants.SCREEN_WIDTH - 6, WatchConstants.SCREEN_HEIGHT - 6, font, WatchConstants.HORIZONTAL_ALIGN_LEFT | WatchConstants.TEXT_FLAGS_MULTILINE);
+        // pages are laid out again for every page request, the layouts are cached
+        TextLayout layout = TextLayout.layout(text, ptr, 3, 3, WatchConstants.SCREEN_WIDTH - 6, WatchConstants.SCREEN_HEIGHT - 6, font, WatchConstants.HORIZONTAL_ALIGN_LEFT | WatchConstants.TEXT_FLAGS_MULTILINE);
+        return text.substring(ptr, layout.getEnd());
     }
 }
@@ -0,0 +1,165 @@
+package com.althink.android.ossw.plugins;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.althink.android.ossw.db.OsswDatabaseHelper;
+import com.althink.android.ossw.db.PluginPackageEntry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted catalog of installed plugins, keyed by package name and version. Plugins are read from the database,
+ * a package is queried for its plugin API only when it is installed or updated.
+ * Keep it up to date with {@link #updatePackage(String)} and {@link #removePackage(String)} on package broadcasts
+ * and with {@link #reconcile()} for changes made while the broadcasts were not received.
+ */
+public class PluginCatalog {
+
+    private final static String TAG = PluginCatalog.class.getSimpleName();
+
+    private static PluginCatalog sInstance;
+
+    public static synchronized PluginCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PluginCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context context;
+
+    // guarded by this, loaded on first use
+    private Map<String, PluginPackageEntry> packages;
+    private volatile boolean reconciled = false;
+
+    private PluginCatalog(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return All plugins sorted by label. On the first run the device is scanned for plugins.
+     */
+    public List<PluginDefinition> getPlugins() {
+        boolean empty;
+        synchronized (this) {
+            empty = getPackages().isEmpty();
+        }
+        if (empty && !reconciled) {
+            // nothing stored yet, may be the first run
+            reconcile();
+        }
+        List<PluginDefinition> plugins = new LinkedList<>();
+        synchronized (this) {
+            for (PluginPackageEntry entry : getPackages().values()) {
+                plugins.addAll(entry.getPlugins());
+            }
+        }
+        Collections.sort(plugins);
+        return plugins;
+    }
+
+    public synchronized List<PluginDefinition> getPlugins(String packageName) {
+        PluginPackageEntry entry = getPackages().get(packageName);
+        return entry != null ? new LinkedList<>(entry.getPlugins()) : new LinkedList<PluginDefinition>();
+    }
+
+    /**
+     * Queries the package for its plugins, e.g. after it was installed or updated.
+     *
+     * @return Plugins of the package.
+     */
+    public List<PluginDefinition> updatePackage(String packageName) {
+        PackageInfo packageInfo;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            removePackage(packageName);
+            return new LinkedList<>();
+        }
+
+        List<PluginDefinition> plugins = new PluginManager(context).findPlugins(packageName);
+        if (plugins.isEmpty()) {
+            removePackage(packageName);
+            return plugins;
+        }
+
+        PluginPackageEntry entry = new PluginPackageEntry(packageName, packageInfo.versionCode, packageInfo.lastUpdateTime, plugins);
+        OsswDatabaseHelper.getInstance(context).putPluginPackage(entry);
+        synchronized (this) {
+            getPackages().put(packageName, entry);
+        }
+        return new LinkedList<>(plugins);
+    }
+
+    public void removePackage(String packageName) {
+        boolean removed;
+        synchronized (this) {
+            removed = getPackages().remove(packageName) != null;
+        }
+        if (removed) {
+            OsswDatabaseHelper.getInstance(context).deletePluginPackage(packageName);
+        }
+    }
+
+    /**
+     * Compares the catalog with installed packages and queries only new and updated plugin packages.
+     *
+     * @return Names of packages which plugins were added, updated or removed.
+     */
+    public Set<String> reconcile() {
+        Set<String> pluginPackages = new PluginManager(context).findPluginPackages();
+        Map<String, PluginPackageEntry> cached;
+        synchronized (this) {
+            cached = new HashMap<>(getPackages());
+        }
+
+        Set<String> changed = new HashSet<>();
+        for (String packageName : cached.keySet()) {
+            if (!pluginPackages.contains(packageName)) {
+                removePackage(packageName);
+                changed.add(packageName);
+            }
+        }
+
+        PackageManager packageManager = context.getPackageManager();
+        for (String packageName : pluginPackages) {
+            try {
+                PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+                PluginPackageEntry entry = cached.get(packageName);
+                // last update time changes also when a package is reinstalled without changing the version
+                if (entry == null || entry.getVersionCode() != packageInfo.versionCode || entry.getLastUpdateTime() != packageInfo.lastUpdateTime) {
+                    updatePackage(packageName);
+                    changed.add(packageName);
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                // removed in the meantime
+            }
+        }
+
+        reconciled = true;
+        return changed;
+    }
+
+    private Map<String, PluginPackageEntry> getPackages() {
+        if (packages == null) {
+            packages = new HashMap<>();
+            try {
+                for (PluginPackageEntry entry : OsswDatabaseHelper.getInstance(context).listPluginPackages()) {
+                    packages.put(entry.getPackageName(), entry);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load plugin catalog", e);
+            }
+        }
+        return packages;
+    }
+}
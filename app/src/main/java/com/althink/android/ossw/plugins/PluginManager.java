@@ -9,8 +9,10 @@ import android.net.Uri;
 import android.util.Log;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by krzysiek on 12/06/15.
@@ -33,9 +35,12 @@ public class PluginManager {
         LinkedList<PluginDefinition> plugins = new LinkedList<>();
         try {
             PackageManager packageManager = context.getPackageManager();
-            PackageInfo packageInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_PROVIDERS);
-            for (ProviderInfo provider : packageInfo.providers) {
-                addToListIfPlugin(packageManager, plugins, provider);
+            // meta data is needed to recognize plugin providers
+            PackageInfo packageInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_PROVIDERS | PackageManager.GET_META_DATA);
+            if (packageInfo.providers != null) {
+                for (ProviderInfo provider : packageInfo.providers) {
+                    addToListIfPlugin(packageManager, plugins, provider);
+                }
             }
             return plugins;
         } catch (Exception e) {
@@ -62,8 +67,26 @@ public class PluginManager {
         return plugins;
     }
 
+    /**
+     * Finds packages providing plugins without querying the plugins for their API.
+     */
+    public Set<String> findPluginPackages() {
+        Set<String> packages = new HashSet<>();
+        List<ProviderInfo> providers = context.getPackageManager().queryContentProviders(null, 0, PackageManager.GET_META_DATA);
+        for (ProviderInfo provider : providers) {
+            if (isPlugin(provider)) {
+                packages.add(provider.packageName);
+            }
+        }
+        return packages;
+    }
+
+    private boolean isPlugin(ProviderInfo provider) {
+        return provider.metaData != null && provider.metaData.containsKey("com.althink.android.ossw.plugin");
+    }
+
     private void addToListIfPlugin(PackageManager packageManager, List<PluginDefinition> plugins, ProviderInfo provider) {
-        if (provider.metaData != null && provider.metaData.containsKey("com.althink.android.ossw.plugin")) {
+        if (isPlugin(provider)) {
             PluginDefinition plugin = new PluginDefinition(provider.authority, provider.loadLabel(packageManager).toString(), provider.packageName);
             fillPluginApi(plugin);
             plugins.add(plugin);
@@ -80,7 +103,9 @@ public class PluginManager {
             Cursor cursor = context.getContentResolver().query(propertiesApiUri, null, null, null, null);
             if (cursor != null && cursor.getCount() > 0) {
                 while (cursor.moveToNext()) {
-                    properties.add(new PluginPropertyDefinition(cursor.getInt(0), cursor.getString(1), cursor.getString(2), PluginPropertyType.valueOf(cursor.getString(3))));
+                    // optional min update interval column
+                    long minUpdateInterval = cursor.getColumnCount() > 4 && !cursor.isNull(4) ? cursor.getLong(4) : 0;
+                    properties.add(new PluginPropertyDefinition(cursor.getInt(0), cursor.getString(1), cursor.getString(2), PluginPropertyType.valueOf(cursor.getString(3)), minUpdateInterval));
                 }
             }
             cursor.close();
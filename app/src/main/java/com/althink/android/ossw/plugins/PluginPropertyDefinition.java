@@ -8,12 +8,21 @@ public class PluginPropertyDefinition {
     private String name;
     private String description;
     private PluginPropertyType type;
+    private long minUpdateInterval;
 
     public PluginPropertyDefinition(int id, String name, String description, PluginPropertyType type) {
+        this(id, name, description, type, 0);
+    }
+
+    /**
+     * @param minUpdateInterval Minimal time in milliseconds between sending of consecutive property values to the watch.
+     */
+    public PluginPropertyDefinition(int id, String name, String description, PluginPropertyType type, long minUpdateInterval) {
         this.id = id;
         this.name = name;
         this.description = description;
         this.type = type;
+        this.minUpdateInterval = minUpdateInterval;
     }
 
     public int getId() {
@@ -32,6 +41,10 @@ public class PluginPropertyDefinition {
         return type;
     }
 
+    public long getMinUpdateInterval() {
+        return minUpdateInterval;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -40,6 +53,7 @@ public class PluginPropertyDefinition {
         PluginPropertyDefinition that = (PluginPropertyDefinition) o;
 
         if (id != that.id) return false;
+        if (minUpdateInterval != that.minUpdateInterval) return false;
         if (!description.equals(that.description)) return false;
         if (!name.equals(that.name)) return false;
         if (type != that.type) return false;
@@ -53,6 +67,7 @@ public class PluginPropertyDefinition {
         result = 31 * result + name.hashCode();
         result = 31 * result + description.hashCode();
         result = 31 * result + type.hashCode();
+        result = 31 * result + (int) (minUpdateInterval ^ (minUpdateInterval >>> 32));
         return result;
     }
 }
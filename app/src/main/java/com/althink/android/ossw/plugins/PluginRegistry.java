@@ -0,0 +1,134 @@
+package com.althink.android.ossw.plugins;
+
+import com.althink.android.ossw.service.WatchExtensionProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Installed plugins indexed by plugin id, with their properties and functions indexed by name.
+ * Also maps plugin ids to the slots of external params of the active watch set, so a property change
+ * doesn't need to walk all the params.
+ */
+public class PluginRegistry {
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    private static class PluginEntry {
+        private final PluginDefinition definition;
+        private final Map<String, PluginPropertyDefinition> properties = new HashMap<>();
+        private final Map<String, PluginFunctionDefinition> functions = new HashMap<>();
+
+        private PluginEntry(PluginDefinition definition) {
+            this.definition = definition;
+            if (definition.getProperties() != null) {
+                for (PluginPropertyDefinition property : definition.getProperties()) {
+                    properties.put(property.getName(), property);
+                }
+            }
+            if (definition.getFunctions() != null) {
+                for (PluginFunctionDefinition function : definition.getFunctions()) {
+                    functions.put(function.getName(), function);
+                }
+            }
+        }
+    }
+
+    private final Map<String, PluginEntry> plugins = new ConcurrentHashMap<>();
+
+    // replaced as a whole when the watch set changes, never modified
+    private volatile Map<String, int[]> paramSlots = Collections.emptyMap();
+
+    public void add(PluginDefinition plugin) {
+        plugins.put(plugin.getPluginId(), new PluginEntry(plugin));
+    }
+
+    public void addAll(List<PluginDefinition> plugins) {
+        for (PluginDefinition plugin : plugins) {
+            add(plugin);
+        }
+    }
+
+    /**
+     * @return Removed plugins.
+     */
+    public List<PluginDefinition> removePackage(String packageName) {
+        List<PluginDefinition> removed = new ArrayList<>();
+        for (PluginEntry entry : plugins.values()) {
+            if (packageName.equals(entry.definition.getPackageName())) {
+                removed.add(entry.definition);
+            }
+        }
+        for (PluginDefinition plugin : removed) {
+            plugins.remove(plugin.getPluginId());
+        }
+        return removed;
+    }
+
+    public List<PluginDefinition> getPlugins() {
+        List<PluginDefinition> result = new ArrayList<>(plugins.size());
+        for (PluginEntry entry : plugins.values()) {
+            result.add(entry.definition);
+        }
+        return result;
+    }
+
+    public PluginDefinition getPlugin(String pluginId) {
+        PluginEntry entry = plugins.get(pluginId);
+        return entry != null ? entry.definition : null;
+    }
+
+    public PluginPropertyDefinition getPropertyDefinition(String pluginId, String propertyName) {
+        PluginEntry entry = plugins.get(pluginId);
+        return entry != null ? entry.properties.get(propertyName) : null;
+    }
+
+    public PluginFunctionDefinition getFunctionDefinition(String pluginId, String functionName) {
+        PluginEntry entry = plugins.get(pluginId);
+        return entry != null ? entry.functions.get(functionName) : null;
+    }
+
+    /**
+     * Rebuilds the index of param slots for external params of a new watch set.
+     *
+     * @param externalParameters External params of the watch set, indexed by slot, may be null.
+     */
+    public void setExternalParameters(List<WatchExtensionProperty> externalParameters) {
+        if (externalParameters == null) {
+            paramSlots = Collections.emptyMap();
+            return;
+        }
+        Map<String, List<Integer>> slotLists = new HashMap<>();
+        int slot = 0;
+        for (WatchExtensionProperty property : externalParameters) {
+            List<Integer> slots = slotLists.get(property.getPluginId());
+            if (slots == null) {
+                slots = new ArrayList<>();
+                slotLists.put(property.getPluginId(), slots);
+            }
+            slots.add(slot++);
+        }
+        Map<String, int[]> index = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : slotLists.entrySet()) {
+            List<Integer> slots = entry.getValue();
+            int[] array = new int[slots.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = slots.get(i);
+            }
+            index.put(entry.getKey(), array);
+        }
+        paramSlots = index;
+    }
+
+    /**
+     * @return Slots of external params of the active watch set provided by the plugin, in ascending order.
+     */
+    public int[] getParamSlots(String pluginId) {
+        int[] slots = paramSlots.get(pluginId);
+        return slots != null ? slots : NO_SLOTS;
+    }
+}
@@ -39,11 +39,9 @@ public class PluginsFragment extends ListFragment {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        PluginManager scanner = new PluginManager(getActivity());
-
         PluginListAdapter listAdaptor = new PluginListAdapter();
 
-        for (PluginDefinition plugin : scanner.findPlugins()) {
+        for (PluginDefinition plugin : PluginCatalog.getInstance(getActivity()).getPlugins()) {
             listAdaptor.addPlugin(plugin);
         }
         setListAdapter(listAdaptor);
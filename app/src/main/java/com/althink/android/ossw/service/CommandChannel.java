@@ -0,0 +1,602 @@
+package com.althink.android.ossw.service;
+
+import android.util.Log;
+
+import com.althink.android.ossw.service.ble.BleConnectionStatus;
+import com.althink.android.ossw.service.ble.BleConnectionStatusHandler;
+import com.althink.android.ossw.service.ble.PacketWriteFailureHandler;
+import com.althink.android.ossw.service.ble.WatchTransport;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command link to the watch: frames commands into packets of the transport, correlates them with
+ * the watch ACKs and keeps capabilities reported by the firmware. Doesn't depend on the service,
+ * so transfers may be run against {@link com.althink.android.ossw.service.ble.WatchTransport} fakes.
+ */
+public class CommandChannel implements BleConnectionStatusHandler {
+    private final static String TAG = CommandChannel.class.getSimpleName();
+
+    public static final int MAX_COMMAND_SIZE = 256;
+    private static final int COMMAND_ACK_TIMEOUT = 10000;
+    // time for collecting small commands sent together in a batch
+    private static final int BATCH_DELAY = 5;
+    // max size of a command which may be batched
+    private static final int MAX_BATCHED_COMMAND_SIZE = 16;
+
+    private final UUID txCharacteristicUuid;
+    private volatile WatchTransport watchTransport;
+    private volatile long ackTimeout = COMMAND_ACK_TIMEOUT;
+
+    // orders command writes with assignment of their sequence numbers
+    private final Object commandWriteLock = new Object();
+    private int nextCommandSeq = 0;
+    // commands waiting for ACK, in order of sending
+    private final LinkedList<OsswCommandFuture> pendingCommands = new LinkedList<>();
+    // handles command timeouts and invokes command result handlers
+    private final ScheduledExecutorService commandExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final CommandScheduler commandScheduler = new CommandScheduler();
+    private final LinkMetrics linkMetrics = new LinkMetrics();
+
+    // small commands waiting for sending in a single batch
+    private final List<byte[]> batchedCommands = new ArrayList<>();
+    private final List<OsswCommandFuture> batchedFutures = new ArrayList<>();
+    private CommandPriority batchPriority;
+    private int batchSize;
+    private boolean batchFlushScheduled = false;
+
+    private volatile int firmwareCapabilities = 0;
+    private volatile int firmwareUploadWindow = 1;
+    private volatile WindowedUpload currentUpload;
+
+    /**
+     * @param txCharacteristicUuid Characteristic to which commands are written.
+     */
+    public CommandChannel(UUID txCharacteristicUuid) {
+        this.txCharacteristicUuid = txCharacteristicUuid;
+    }
+
+    public void setWatchTransport(WatchTransport watchTransport) {
+        this.watchTransport = watchTransport;
+    }
+
+    public WatchTransport getWatchTransport() {
+        return watchTransport;
+    }
+
+    /**
+     * Changes the ACK timeout of commands sent without explicit timeout, e.g. to detect lost commands faster in tests.
+     */
+    void setAckTimeout(long ackTimeout) {
+        this.ackTimeout = ackTimeout;
+    }
+
+    public void start() {
+        commandScheduler.start();
+    }
+
+    public void shutdown() {
+        commandExecutor.shutdownNow();
+        commandScheduler.stop();
+    }
+
+    /**
+     * Forgets the previous connection when the link is lost, also when it's restored automatically, and
+     * before the capabilities of the connected firmware are queried.
+     */
+    @Override
+    public void handleConnectionStatusChange(BleConnectionStatus status) {
+        switch (status) {
+            case DISCONNECTED:
+            case AUTO_RECONNECT:
+            case CONNECTED:
+                reset();
+                break;
+        }
+    }
+
+    /**
+     * Fails the commands waiting for ACK and forgets the firmware state, called when the watch is disconnected.
+     */
+    public void reset() {
+        List<OsswCommandFuture> commands;
+        synchronized (pendingCommands) {
+            commands = new ArrayList<>(pendingCommands);
+            pendingCommands.clear();
+            pendingCommands.notifyAll();
+        }
+        for (OsswCommandFuture command : commands) {
+            completeCommand(command, OsswCommandFuture.RESULT_NOT_SENT);
+        }
+        synchronized (commandWriteLock) {
+            nextCommandSeq = 0;
+        }
+
+        firmwareCapabilities = 0;
+        firmwareUploadWindow = 1;
+        WindowedUpload upload = currentUpload;
+        if (upload != null) {
+            upload.abort();
+        }
+    }
+
+    /**
+     * Handles data of the link itself: ACKs, capabilities and upload chunk ACKs.
+     *
+     * @return False if the data should be handled by the caller.
+     */
+    public boolean handleWatchData(byte[] value) {
+        switch (value[0]) {
+            case WatchConstants.OSSW_RX_COMMAND_COMMAND_ACK:
+                handleCommandAck(value);
+                return true;
+            case WatchConstants.OSSW_RX_COMMAND_CAPABILITIES:
+                if (value.length < 2) {
+                    Log.w(TAG, "Malformed capabilities: " + Arrays.toString(value));
+                    return true;
+                }
+                firmwareCapabilities = value[1] & 0xFF;
+                firmwareUploadWindow = value.length > 2 ? Math.max(1, value[2] & 0xFF) : 1;
+                Log.i(TAG, "FW capabilities: " + firmwareCapabilities + ", upload window: " + firmwareUploadWindow);
+                synchronized (pendingCommands) {
+                    // commands waiting for the previous ACK may be sent with sequence now
+                    pendingCommands.notifyAll();
+                }
+                return true;
+            case WatchConstants.OSSW_RX_COMMAND_UPLOAD_CHUNK_ACK:
+                if (value.length < 3) {
+                    return true;
+                }
+                WindowedUpload ackedUpload = currentUpload;
+                if (ackedUpload != null) {
+                    ackedUpload.handleAck((value[1] & 0xFF) << 8 | value[2] & 0xFF);
+                }
+                return true;
+            case WatchConstants.OSSW_RX_COMMAND_UPLOAD_CHUNK_NACK:
+                if (value.length < 3) {
+                    return true;
+                }
+                WindowedUpload nackedUpload = currentUpload;
+                if (nackedUpload != null) {
+                    nackedUpload.handleNack((value[1] & 0xFF) << 8 | value[2] & 0xFF);
+                    linkMetrics.recordRetry();
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isConnected() {
+        WatchTransport transport = watchTransport;
+        return transport != null && transport.isConnected();
+    }
+
+    public boolean hasCapability(int capability) {
+        return (firmwareCapabilities & capability) != 0;
+    }
+
+    public int getFirmwareUploadWindow() {
+        return firmwareUploadWindow;
+    }
+
+    /**
+     * @param upload Upload receiving chunk ACKs, null when no windowed upload is in progress.
+     */
+    public void setCurrentUpload(WindowedUpload upload) {
+        currentUpload = upload;
+    }
+
+    public LinkMetrics getLinkMetrics() {
+        return linkMetrics;
+    }
+
+    public int getQueueDepth(CommandPriority priority) {
+        return commandScheduler.getQueueDepth(priority);
+    }
+
+    public int getMaxQueueDepth(CommandPriority priority) {
+        return commandScheduler.getMaxQueueDepth(priority);
+    }
+
+    public int sendCommand(byte[] commandData) {
+        return sendCommand(commandData, commandData.length);
+    }
+
+    public int sendCommand(byte[] commandData, int length) {
+        return sendCommand(CommandPriority.BULK, commandData, length, ackTimeout);
+    }
+
+    /**
+     * Sends the command and waits for its ACK.
+     *
+     * @return Status from the ACK or one of the negative result codes of {@link OsswCommandFuture}.
+     */
+    public int sendCommand(CommandPriority priority, byte[] commandData, int length, long ackTimeout) {
+        OsswCommandFuture command = sendCommandAsync(priority, commandData, length, ackTimeout, null);
+        try {
+            return command.get();
+        } catch (InterruptedException e) {
+            command.cancel(true);
+            Log.e(TAG, "Failed to receive command ACK");
+            return OsswCommandFuture.RESULT_TIMEOUT;
+        } catch (CancellationException e) {
+            return OsswCommandFuture.RESULT_TIMEOUT;
+        }
+    }
+
+    public OsswCommandFuture sendCommandAsync(CommandPriority priority, byte[] commandData, CommandResultHandler handler) {
+        return sendCommandAsync(priority, commandData, commandData.length, ackTimeout, handler);
+    }
+
+    /**
+     * Queues the command for sending without waiting for the ACK. Commands are sent in order of
+     * their priority, commands with the same priority in order of queueing.
+     *
+     * @param handler Optional handler invoked with the command status, on a service worker thread.
+     * @return Future completed when the ACK is received or the timeout elapses.
+     */
+    public OsswCommandFuture sendCommandAsync(CommandPriority priority, final byte[] commandData, final int length, final long ackTimeout, CommandResultHandler handler) {
+        final OsswCommandFuture command = new OsswCommandFuture(handler);
+        commandScheduler.submit(priority, new Runnable() {
+            @Override
+            public void run() {
+                if (!command.isCancelled()) {
+                    dispatchCommand(command, commandData, length, ackTimeout);
+                }
+            }
+        });
+        return command;
+    }
+
+    /**
+     * @return True if commands are sent with a sequence number echoed in the ACK, so more of them may wait for ACK.
+     */
+    public boolean isCommandSequenceSupported() {
+        return hasCapability(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE);
+    }
+
+    public boolean isBatchSupported() {
+        return hasCapability(WatchConstants.FW_CAPABILITY_BATCH);
+    }
+
+    /**
+     * Queues a small command which is sent together with other small commands queued within a few
+     * milliseconds, in a single batch acknowledged once. The command is sent alone if the watch
+     * doesn't support batches.
+     *
+     * @return Future completed with the status of the whole batch.
+     */
+    public OsswCommandFuture sendBatchableCommandAsync(CommandPriority priority, byte[] commandData, CommandResultHandler handler) {
+        if (!isBatchSupported() || commandData.length > MAX_BATCHED_COMMAND_SIZE) {
+            return sendCommandAsync(priority, commandData, handler);
+        }
+        OsswCommandFuture command = new OsswCommandFuture(handler);
+        synchronized (batchedCommands) {
+            // batch command id and length of each command take additional bytes
+            if (batchSize + commandData.length + 1 > MAX_COMMAND_SIZE - 1) {
+                flushBatch();
+            }
+            batchedCommands.add(commandData);
+            batchedFutures.add(command);
+            batchSize += commandData.length + 1;
+            if (batchPriority == null || priority.ordinal() < batchPriority.ordinal()) {
+                batchPriority = priority;
+            }
+            if (!batchFlushScheduled) {
+                batchFlushScheduled = true;
+                commandExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (batchedCommands) {
+                            flushBatch();
+                        }
+                    }
+                }, BATCH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Queues all collected commands, must be called with the batch lock held.
+     */
+    private void flushBatch() {
+        batchFlushScheduled = false;
+        if (batchedCommands.isEmpty()) {
+            return;
+        }
+        final OsswCommandFuture command;
+        final byte[] commandData;
+        if (batchedCommands.size() == 1) {
+            command = batchedFutures.get(0);
+            commandData = batchedCommands.get(0);
+        } else {
+            final List<OsswCommandFuture> futures = new ArrayList<>(batchedFutures);
+            command = new OsswCommandFuture(new CommandResultHandler() {
+                @Override
+                public void handleResult(int status) {
+                    for (OsswCommandFuture future : futures) {
+                        completeCommand(future, status);
+                    }
+                }
+            });
+            ByteArrayOutputStream os = new ByteArrayOutputStream(batchSize + 1);
+            os.write(WatchConstants.OSSW_TX_COMMAND_BATCH);
+            for (byte[] batched : batchedCommands) {
+                os.write(batched.length);
+                os.write(batched, 0, batched.length);
+            }
+            commandData = os.toByteArray();
+        }
+        commandScheduler.submit(batchPriority, new Runnable() {
+            @Override
+            public void run() {
+                if (!command.isCancelled()) {
+                    dispatchCommand(command, commandData, commandData.length, ackTimeout);
+                }
+            }
+        });
+        batchedCommands.clear();
+        batchedFutures.clear();
+        batchSize = 0;
+        batchPriority = null;
+    }
+
+    /**
+     * Queues the command the watch doesn't acknowledge, the future is completed when the command is written.
+     */
+    public OsswCommandFuture queueCommandWithoutAck(CommandPriority priority, final byte[] commandData, final int length) {
+        final OsswCommandFuture command = new OsswCommandFuture(null);
+        commandScheduler.submit(priority, new Runnable() {
+            @Override
+            public void run() {
+                if (!command.isCancelled()) {
+                    // the future is already completed when a packet is dropped, the watch recovers the command
+                    // the same way as a lost one, e.g. by NACK of the windowed chunk
+                    boolean written = writeCommand(commandData, length, -1, new PacketWriteFailureHandler() {
+                        @Override
+                        public void handleWriteFailure() {
+                            Log.w(TAG, "Command packet dropped, command: " + commandData[0]);
+                            linkMetrics.recordFailedWrite();
+                        }
+                    });
+                    completeCommand(command, written ? 0 : OsswCommandFuture.RESULT_NOT_SENT);
+                }
+            }
+        });
+        return command;
+    }
+
+    private void dispatchCommand(final OsswCommandFuture command, byte[] commandData, int length, long ackTimeout) {
+        try {
+            synchronized (pendingCommands) {
+                // ACK without sequence can be matched only if there is a single command waiting for it
+                while (!isCommandSequenceSupported() && !pendingCommands.isEmpty()) {
+                    pendingCommands.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            completeCommand(command, OsswCommandFuture.RESULT_NOT_SENT);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!command.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                removePendingCommand(command);
+            }
+        })) {
+            return;
+        }
+        synchronized (commandWriteLock) {
+            int seq = isCommandSequenceSupported() ? nextCommandSeq : -1;
+            command.setCommandSeq(seq);
+            synchronized (pendingCommands) {
+                pendingCommands.add(command);
+            }
+            if (!writeCommand(commandData, length, seq, new PacketWriteFailureHandler() {
+                @Override
+                public void handleWriteFailure() {
+                    Log.w(TAG, "Command packet dropped, seq: " + command.getCommandSeq());
+                    linkMetrics.recordFailedWrite();
+                    failPendingCommand(command);
+                }
+            })) {
+                failPendingCommand(command);
+                return;
+            }
+        }
+
+        commandExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (removePendingCommand(command)) {
+                    Log.w(TAG, "Command ACK timeout, seq: " + command.getCommandSeq());
+                    linkMetrics.recordTimeout();
+                    completeCommand(command, OsswCommandFuture.RESULT_TIMEOUT);
+                }
+            }
+        }, ackTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void failPendingCommand(OsswCommandFuture command) {
+        removePendingCommand(command);
+        completeCommand(command, OsswCommandFuture.RESULT_NOT_SENT);
+    }
+
+    /**
+     * @return True if the command was still waiting for ACK.
+     */
+    private boolean removePendingCommand(OsswCommandFuture command) {
+        synchronized (pendingCommands) {
+            if (!pendingCommands.remove(command)) {
+                return false;
+            }
+            pendingCommands.notifyAll();
+            return true;
+        }
+    }
+
+    private void handleCommandAck(byte[] value) {
+        if (value.length < 2) {
+            return;
+        }
+        int status = value[1] & 0xFF;
+        int seq = value.length > 2 ? value[2] & 0xFF : -1;
+        OsswCommandFuture command = null;
+        List<OsswCommandFuture> lostCommands = null;
+        synchronized (pendingCommands) {
+            if (seq >= 0) {
+                // the watch handles commands in order, commands sent with sequence before the acknowledged one were lost
+                List<OsswCommandFuture> sentBefore = new ArrayList<>();
+                for (OsswCommandFuture pending : pendingCommands) {
+                    if (pending.getCommandSeq() == seq) {
+                        command = pending;
+                        break;
+                    } else if (pending.getCommandSeq() >= 0) {
+                        sentBefore.add(pending);
+                    }
+                }
+                if (command != null) {
+                    pendingCommands.remove(command);
+                    pendingCommands.removeAll(sentBefore);
+                    lostCommands = sentBefore;
+                }
+            }
+            if (command == null && (seq < 0 || !isCommandSequenceSupported())) {
+                // commands sent without sequence are acknowledged in order, only one is sent at a time
+                Iterator<OsswCommandFuture> i = pendingCommands.iterator();
+                while (i.hasNext()) {
+                    OsswCommandFuture pending = i.next();
+                    if (pending.getCommandSeq() < 0) {
+                        i.remove();
+                        command = pending;
+                        break;
+                    }
+                }
+            }
+            pendingCommands.notifyAll();
+        }
+        if (lostCommands != null) {
+            for (OsswCommandFuture lost : lostCommands) {
+                Log.w(TAG, "Command lost, seq: " + lost.getCommandSeq());
+                linkMetrics.recordTimeout();
+                completeCommand(lost, OsswCommandFuture.RESULT_TIMEOUT);
+            }
+        }
+        if (command != null) {
+            linkMetrics.recordAck(System.currentTimeMillis() - command.getSendTime());
+            completeCommand(command, status);
+        } else {
+            Log.w(TAG, "ACK of command not waiting for it, seq: " + seq);
+        }
+    }
+
+    private void completeCommand(final OsswCommandFuture command, final int status) {
+        if (command.complete(status) && command.getHandler() != null) {
+            commandExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.getHandler().handleResult(status);
+                    } catch (Exception e) {
+                        Log.e(TAG, e.getMessage(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the command as a single packet without framing, used by commands older than the framing.
+     */
+    public void writeRawCommand(byte[] data) {
+        watchTransport.writeCharacteristic(txCharacteristicUuid, data);
+        linkMetrics.recordCommand(data[0]);
+        linkMetrics.recordPacket(data.length);
+    }
+
+    /**
+     * Splits the command into BLE packets and queues them for sending, doesn't wait for ACK.
+     *
+     * @param seq            Sequence number sent with the command, -1 to send it without sequence.
+     * @param failureHandler Notified when a packet is dropped after the command was queued.
+     */
+    private boolean writeCommand(byte[] commandData, int length, int seq, PacketWriteFailureHandler failureHandler) {
+        synchronized (commandWriteLock) {
+            if (!writeCommandPackets(commandData, length, seq, failureHandler)) {
+                linkMetrics.recordFailedWrite();
+                return false;
+            }
+            linkMetrics.recordCommand(commandData[0]);
+            if (seq >= 0) {
+                nextCommandSeq = (nextCommandSeq + 1) & 0xFF;
+            }
+            return true;
+        }
+    }
+
+    private boolean writeCommandPackets(byte[] commandData, int length, int seq, PacketWriteFailureHandler failureHandler) {
+        //Log.i(TAG, "Send command: " + Arrays.toString(commandData));
+
+        int dataPtr = 0;
+        int sizeLeft = length;
+
+        WatchTransport transport = watchTransport;
+        if (transport == null || !transport.isConnected()) {
+            return false;
+        }
+
+        // one byte of each packet is used by the chunk header
+        int maxDataInPacket = transport.getMaxWriteSize() - 1;
+
+        while (sizeLeft > 0) {
+            // sequence number follows the header of the first chunk
+            int headerSize = seq >= 0 && sizeLeft == length ? 2 : 1;
+            int maxData = maxDataInPacket + 1 - headerSize;
+            int dataInPacket = sizeLeft > maxData ? maxData : sizeLeft;
+            byte[] bleData = transport.obtainPacket(dataInPacket + headerSize);
+
+            if (sizeLeft <= maxData) {
+                if (sizeLeft == length) {
+                    //only chunk (both first and last)
+                    bleData[0] = (byte) (seq >= 0 ? 0x47 : 0x43);
+                } else {
+                    //last chunk
+                    bleData[0] = 0x42;
+                }
+            } else if (sizeLeft == length) {
+                //first chunk
+                bleData[0] = (byte) (seq >= 0 ? 0x44 : 0x40);
+            } else {
+                //central chunk
+                bleData[0] = 0x41;
+            }
+            if (headerSize == 2) {
+                bleData[1] = (byte) seq;
+            }
+
+            System.arraycopy(commandData, dataPtr, bleData, headerSize, dataInPacket);
+            dataPtr += dataInPacket;
+
+            transport.writePacket(txCharacteristicUuid, bleData, failureHandler);
+            linkMetrics.recordPacket(dataInPacket + headerSize);
+
+            sizeLeft -= dataInPacket;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service;
+
+/**
+ * Order in which queued commands are sent to the watch, the first one is the most important.
+ */
+public enum CommandPriority {
+    ALERT, INTERACTIVE, PARAMETERS, BULK
+}
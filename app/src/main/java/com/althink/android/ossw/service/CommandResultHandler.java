@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service;
+
+/**
+ * Receives the status of a command sent to the watch, 0 means success.
+ */
+public interface CommandResultHandler {
+    void handleResult(int status);
+}
@@ -0,0 +1,104 @@
+package com.althink.android.ossw.service;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Sends queued commands one by one from a single thread, always taking the command with
+ * the highest priority first. Long transfers are queued chunk by chunk, so more important
+ * commands are sent between their chunks.
+ */
+public class CommandScheduler {
+
+    private final static String TAG = CommandScheduler.class.getSimpleName();
+
+    private final ArrayDeque<Runnable>[] queues;
+    private final int[] maxQueueDepths;
+    private final long[] dispatchedCommands;
+
+    private Thread dispatcher;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CommandScheduler() {
+        int priorities = CommandPriority.values().length;
+        queues = new ArrayDeque[priorities];
+        for (int i = 0; i < priorities; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        maxQueueDepths = new int[priorities];
+        dispatchedCommands = new long[priorities];
+    }
+
+    public synchronized void start() {
+        if (dispatcher != null) {
+            return;
+        }
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, TAG);
+        dispatcher.start();
+    }
+
+    public synchronized void stop() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher = null;
+        }
+        for (ArrayDeque<Runnable> queue : queues) {
+            queue.clear();
+        }
+    }
+
+    public synchronized void submit(CommandPriority priority, Runnable command) {
+        ArrayDeque<Runnable> queue = queues[priority.ordinal()];
+        queue.add(command);
+        if (queue.size() > maxQueueDepths[priority.ordinal()]) {
+            maxQueueDepths[priority.ordinal()] = queue.size();
+        }
+        notifyAll();
+    }
+
+    public synchronized int getQueueDepth(CommandPriority priority) {
+        return queues[priority.ordinal()].size();
+    }
+
+    public synchronized int getMaxQueueDepth(CommandPriority priority) {
+        return maxQueueDepths[priority.ordinal()];
+    }
+
+    public synchronized long getDispatchedCommands(CommandPriority priority) {
+        return dispatchedCommands[priority.ordinal()];
+    }
+
+    private synchronized Runnable takeNext() throws InterruptedException {
+        while (true) {
+            for (int i = 0; i < queues.length; i++) {
+                Runnable command = queues[i].poll();
+                if (command != null) {
+                    dispatchedCommands[i]++;
+                    return command;
+                }
+            }
+            wait();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Runnable command = takeNext();
+                try {
+                    command.run();
+                } catch (Exception e) {
+                    Log.e(TAG, e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // scheduler stopped
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.althink.android.ossw.service;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes external param values relative to the values last sent to the watch. Numbers are sent as zigzag varint
+ * deltas, strings as patches replacing the part between the prefix and the suffix shared with the previous value.
+ * <p>
+ * Each encoded value starts with the encoding:
+ * <ul>
+ * <li>{@link #ENCODING_FULL}: [length][value]</li>
+ * <li>{@link #ENCODING_NUMBER_DELTA}: [varint zigzag(new - old)], added modulo the width of the param</li>
+ * <li>{@link #ENCODING_STRING_PATCH}: [varint prefix length][varint suffix length][varint length][bytes]</li>
+ * </ul>
+ */
+public class ExtParamDeltaEncoder {
+
+    public static final int ENCODING_FULL = 0;
+    public static final int ENCODING_NUMBER_DELTA = 1;
+    public static final int ENCODING_STRING_PATCH = 2;
+
+    public static byte[] encodeFull(byte[] value) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(value.length + 2);
+        os.write(ENCODING_FULL);
+        os.write(value.length);
+        os.write(value, 0, value.length);
+        return os.toByteArray();
+    }
+
+    public static byte[] encodeNumberDelta(int oldValue, int newValue) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(6);
+        os.write(ENCODING_NUMBER_DELTA);
+        writeVarint(os, zigzag(newValue - oldValue));
+        return os.toByteArray();
+    }
+
+    public static byte[] encodeStringPatch(byte[] oldValue, byte[] newValue) {
+        int maxCommon = Math.min(oldValue.length, newValue.length);
+        int prefix = 0;
+        while (prefix < maxCommon && oldValue[prefix] == newValue[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxCommon - prefix && oldValue[oldValue.length - suffix - 1] == newValue[newValue.length - suffix - 1]) {
+            suffix++;
+        }
+        int length = newValue.length - prefix - suffix;
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream(length + 4);
+        os.write(ENCODING_STRING_PATCH);
+        writeVarint(os, prefix);
+        writeVarint(os, suffix);
+        writeVarint(os, length);
+        os.write(newValue, prefix, length);
+        return os.toByteArray();
+    }
+
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeVarint(ByteArrayOutputStream os, int value) {
+        while ((value & ~0x7F) != 0) {
+            os.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        os.write(value);
+    }
+
+    /**
+     * @param pos Position of the varint in data, set to the position after it.
+     */
+    public static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
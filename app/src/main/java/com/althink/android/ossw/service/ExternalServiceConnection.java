@@ -2,28 +2,116 @@ package com.althink.android.ossw.service;
 
 import android.content.ComponentName;
 import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Message;
 import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by krzysiek on 14/06/15.
  */
 public class ExternalServiceConnection {
 
+    private final static String TAG = ExternalServiceConnection.class.getSimpleName();
+
+    // messages of the property push channel, out of the range of plugin function ids
+    public static final int MSG_REGISTER_PROPERTY_LISTENER = 0x10000;
+    public static final int MSG_PROPERTY_VALUES = 0x10001;
+
+    /**
+     * Handles property values pushed by a plugin.
+     */
+    public interface PropertyValuesHandler {
+        /**
+         * @param values Changed property values keyed by property name.
+         */
+        void handlePropertyValues(String pluginId, Bundle values);
+    }
+
+    private final String pluginId;
+    private final Messenger propertyListener;
+    // last values pushed by the plugin
+    private final Map<String, Object> propertyValues = new ConcurrentHashMap<>();
+    private volatile boolean pushSupported = false;
+
     private Messenger messanger;
     private final ServiceConnection connection = new ServiceConnection() {
 
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
             messanger = new Messenger(service);
+            registerPropertyListener();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             messanger = null;
+            pushSupported = false;
+            propertyValues.clear();
         }
     };
 
+    /**
+     * @param handler Handler on which thread pushed values are handled.
+     */
+    public ExternalServiceConnection(String pluginId, Handler handler, final PropertyValuesHandler valuesHandler) {
+        this.pluginId = pluginId;
+        this.propertyListener = new Messenger(new Handler(handler.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what != MSG_PROPERTY_VALUES) {
+                    return false;
+                }
+                Bundle values = msg.getData();
+                pushSupported = true;
+                for (String name : values.keySet()) {
+                    Object value = values.get(name);
+                    if (value != null) {
+                        propertyValues.put(name, value);
+                    } else {
+                        // cleared value, read it from the content provider again
+                        propertyValues.remove(name);
+                    }
+                }
+                valuesHandler.handlePropertyValues(ExternalServiceConnection.this.pluginId, values);
+                return true;
+            }
+        }));
+    }
+
+    /**
+     * Asks the plugin to push property changes, plugins not supporting it ignore the message.
+     */
+    private void registerPropertyListener() {
+        Message message = Message.obtain(null, MSG_REGISTER_PROPERTY_LISTENER);
+        message.replyTo = propertyListener;
+        try {
+            messanger.send(message);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to register property listener: " + pluginId);
+        }
+    }
+
+    /**
+     * @return True if the plugin pushes property values, so its content provider doesn't need to be queried.
+     */
+    public boolean isPushSupported() {
+        return pushSupported;
+    }
+
+    /**
+     * @return Last pushed value of the property or null.
+     */
+    public Object getPropertyValue(String name) {
+        return propertyValues.get(name);
+    }
+
     public Messenger getMessanger() {
         return messanger;
     }
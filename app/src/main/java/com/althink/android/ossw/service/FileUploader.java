@@ -0,0 +1,309 @@
+package com.althink.android.ossw.service;
+
+import android.util.Log;
+
+import com.althink.android.ossw.utils.Crc16;
+import com.althink.android.ossw.utils.Lzss;
+import com.althink.android.ossw.watch.WatchConstants;
+import com.althink.android.ossw.watchsets.WatchSetPatchBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Uploads files to the watch over the command channel, choosing the fastest upload protocol
+ * supported by the firmware: watch set patch, windowed, resumable or stop-and-wait upload,
+ * optionally compressed.
+ */
+public class FileUploader {
+    private final static String TAG = FileUploader.class.getSimpleName();
+
+    private static final int MAX_COMMAND_SIZE = CommandChannel.MAX_COMMAND_SIZE;
+    // data bytes in a single file upload command
+    private static final int UPLOAD_CHUNK_SIZE = 255;
+    private static final int WINDOWED_UPLOAD_ACK_TIMEOUT = 2000;
+    private static final int WINDOWED_UPLOAD_MAX_TIMEOUTS = 5;
+    // command id, offset and chunk CRC take 6 bytes of each command
+    private static final int RESUMABLE_UPLOAD_CHUNK_SIZE = MAX_COMMAND_SIZE - 6;
+    private static final int RESUMABLE_UPLOAD_MAX_CHUNK_RETRIES = 3;
+    // patch is not used if it doesn't save at least a quarter of the data
+    private static final int MAX_PATCH_SIZE_PERCENT = 75;
+    // compression is not used if it doesn't save at least a tenth of the data
+    private static final int MAX_COMPRESSED_SIZE_PERCENT = 90;
+
+    private final CommandChannel channel;
+    private final Map<String, UploadResumeState> uploadResumeStates = new ConcurrentHashMap<>();
+    private volatile long chunkAckTimeout = WINDOWED_UPLOAD_ACK_TIMEOUT;
+
+    public FileUploader(CommandChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Changes the time after which unacknowledged windowed chunks are sent again, e.g. to recover from lost chunks faster in tests.
+     */
+    void setChunkAckTimeout(long chunkAckTimeout) {
+        this.chunkAckTimeout = chunkAckTimeout;
+    }
+
+    /**
+     * @param path         Path of the file on the watch, identifies the upload which may be resumed.
+     * @param filePath     Path encoded for the upload commands.
+     * @param previousData Content of the file uploaded before, only changes against it are sent if the
+     *                     watch supports patches, null if not known.
+     * @return True if the file was committed by the watch.
+     */
+    public boolean upload(String path, byte[] filePath, byte[] data, byte[] previousData, UploadProgressHandler progressHandler) {
+        boolean windowed = channel.hasCapability(WatchConstants.FW_CAPABILITY_WINDOWED_UPLOAD) && channel.getFirmwareUploadWindow() > 1;
+        boolean resumable = channel.hasCapability(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD);
+        boolean patchable = channel.hasCapability(WatchConstants.FW_CAPABILITY_PATCH_UPLOAD);
+
+        boolean committed = false;
+        if (previousData != null && patchable && uploadPatch(filePath, previousData, data, progressHandler)) {
+            committed = channel.sendCommand(new byte[]{0x22}) == 0;
+            if (!committed) {
+                Log.i(TAG, "Watch set patch rejected, upload whole file");
+            }
+        }
+
+        if (!committed && channel.isConnected()) {
+            boolean uploaded;
+            if (resumable && (!windowed || uploadResumeStates.containsKey(path))) {
+                // windowed upload is faster, but once a file upload was interrupted we prefer the one which can be resumed
+                uploaded = uploadFileResumable(path, filePath, data, progressHandler);
+            } else {
+                // resumable upload is always sent uncompressed, as the watch would have to restore decompressor state
+                byte[] transferData = encodeUploadData(data);
+                if (transferData == null) {
+                    uploaded = false;
+                } else if (windowed) {
+                    uploaded = uploadFileWindowed(filePath, transferData, progressHandler);
+                } else {
+                    uploaded = uploadFileStopAndWait(filePath, transferData, progressHandler);
+                }
+            }
+            committed = uploaded && channel.sendCommand(new byte[]{0x22}) == 0;
+        }
+
+        if (committed) {
+            uploadResumeStates.remove(path);
+        } else if (resumable && !uploadResumeStates.containsKey(path)) {
+            uploadResumeStates.put(path, new UploadResumeState(calcContentHash(data)));
+        }
+        return committed;
+    }
+
+    private boolean uploadFileResumable(String path, byte[] filePath, byte[] data, UploadProgressHandler progressHandler) {
+        int size = data.length;
+        int hash = calcContentHash(data);
+
+        UploadResumeState state = uploadResumeStates.get(path);
+        if (state == null || state.getContentHash() != hash) {
+            state = new UploadResumeState(hash);
+            uploadResumeStates.put(path, state);
+        }
+
+        int offset = Math.min(state.getAcknowledgedOffset(), size);
+        if (channel.sendCommand(buildResumableUploadInitCommand(filePath, size, hash, offset)) != 0) {
+            if (offset == 0) {
+                return false;
+            }
+            // the watch doesn't have the beginning of the file anymore
+            Log.i(TAG, "Resume rejected, upload whole file");
+            offset = 0;
+            state.setAcknowledgedOffset(0);
+            if (channel.sendCommand(buildResumableUploadInitCommand(filePath, size, hash, offset)) != 0) {
+                return false;
+            }
+        } else if (offset > 0) {
+            Log.i(TAG, "Resume upload from offset: " + offset);
+        }
+
+        // the command is split into packets before the ACK arrives, so the buffer is reused for all chunks
+        byte[] chunkCommand = new byte[RESUMABLE_UPLOAD_CHUNK_SIZE + 6];
+        while (offset < size) {
+            int chunkSize = Math.min(RESUMABLE_UPLOAD_CHUNK_SIZE, size - offset);
+            int crc = Crc16.compute(data, offset, chunkSize);
+
+            chunkCommand[0] = WatchConstants.OSSW_TX_COMMAND_RESUMABLE_UPLOAD_CHUNK;
+            chunkCommand[1] = (byte) ((offset >> 16) & 0xFF);
+            chunkCommand[2] = (byte) ((offset >> 8) & 0xFF);
+            chunkCommand[3] = (byte) (offset & 0xFF);
+            chunkCommand[4] = (byte) (crc >> 8);
+            chunkCommand[5] = (byte) (crc & 0xFF);
+            System.arraycopy(data, offset, chunkCommand, 6, chunkSize);
+
+            progressHandler.handleProgress((int) (100L * offset / size));
+
+            int result = channel.sendCommand(chunkCommand, chunkSize + 6);
+            int retries = 0;
+            while (result == WatchConstants.COMMAND_ACK_CHUNK_CRC_ERROR && retries++ < RESUMABLE_UPLOAD_MAX_CHUNK_RETRIES) {
+                Log.w(TAG, "Chunk corrupted, send again, offset: " + offset);
+                channel.getLinkMetrics().recordRetry();
+                result = channel.sendCommand(chunkCommand, chunkSize + 6);
+            }
+            if (result != 0) {
+                return false;
+            }
+
+            offset += chunkSize;
+            state.setAcknowledgedOffset(offset);
+        }
+        return true;
+    }
+
+    private byte[] buildResumableUploadInitCommand(byte[] filePath, int size, int hash, int offset) {
+        return buildInitCommand(new byte[]{WatchConstants.OSSW_TX_COMMAND_INIT_RESUMABLE_UPLOAD,
+                        (byte) ((size >> 16) & 0xFF), (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF),
+                        (byte) (hash >> 24), (byte) ((hash >> 16) & 0xFF), (byte) ((hash >> 8) & 0xFF), (byte) (hash & 0xFF),
+                        (byte) ((offset >> 16) & 0xFF), (byte) ((offset >> 8) & 0xFF), (byte) (offset & 0xFF)}, filePath);
+    }
+
+    /**
+     * @return Command header followed by the zero terminated file path.
+     */
+    private static byte[] buildInitCommand(byte[] header, byte[] filePath) {
+        byte[] command = Arrays.copyOf(header, header.length + filePath.length + 1);
+        System.arraycopy(filePath, 0, command, header.length, filePath.length);
+        return command;
+    }
+
+    private static int calcContentHash(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private boolean uploadPatch(byte[] filePath, byte[] previousData, byte[] data, UploadProgressHandler progressHandler) {
+        byte[] patch = WatchSetPatchBuilder.buildPatch(previousData, data);
+        if (patch == null || patch.length * 100 > data.length * MAX_PATCH_SIZE_PERCENT) {
+            return false;
+        }
+
+        patch = encodeUploadData(patch);
+        if (patch == null) {
+            return false;
+        }
+
+        int size = patch.length;
+        Log.i(TAG, "Upload watch set patch, size: " + size);
+        // the watch applies the patch to the current file with the same path
+        if (channel.sendCommand(buildInitCommand(new byte[]{WatchConstants.OSSW_TX_COMMAND_INIT_PATCH_UPLOAD, (byte)((size>>16)&0xFF), (byte)((size>>8)&0xFF), (byte)(size&0xFF)}, filePath)) != 0) {
+            return false;
+        }
+        return uploadFileChunks(patch, progressHandler);
+    }
+
+    /**
+     * Compresses data of the next upload if the watch supports it and it's worth it.
+     *
+     * @return Data to transfer or null if the watch didn't accept the encoding.
+     */
+    private byte[] encodeUploadData(byte[] data) {
+        if (!channel.hasCapability(WatchConstants.FW_CAPABILITY_COMPRESSED_UPLOAD)) {
+            return data;
+        }
+        byte[] compressed = Lzss.compress(data);
+        if (compressed.length * 100 > data.length * MAX_COMPRESSED_SIZE_PERCENT) {
+            return data;
+        }
+
+        int size = data.length;
+        Log.i(TAG, "Compressed upload data: " + size + " -> " + compressed.length);
+        // encoding applies to the next upload only
+        if (channel.sendCommand(new byte[]{WatchConstants.OSSW_TX_COMMAND_SET_UPLOAD_ENCODING, WatchConstants.UPLOAD_ENCODING_LZSS, (byte)((size>>16)&0xFF), (byte)((size>>8)&0xFF), (byte)(size&0xFF)}) != 0) {
+            return null;
+        }
+        return compressed;
+    }
+
+    private boolean uploadFileStopAndWait(byte[] filePath, byte[] data, UploadProgressHandler progressHandler) {
+        int size = data.length;
+        if (channel.sendCommand(buildInitCommand(new byte[]{0x20, (byte)((size>>16)&0xFF), (byte)((size>>8)&0xFF), (byte)(size&0xFF)}, filePath)) != 0) {
+            return false;
+        }
+        return uploadFileChunks(data, progressHandler);
+    }
+
+    private boolean uploadFileChunks(byte[] data, UploadProgressHandler progressHandler) {
+        // the command is split into packets before the ACK arrives, so the buffer is reused for all chunks
+        byte[] commandData = new byte[UPLOAD_CHUNK_SIZE + 1];
+        commandData[0] = 0x21;
+
+        for (int offset = 0; offset < data.length; offset += UPLOAD_CHUNK_SIZE) {
+            int chunkSize = Math.min(UPLOAD_CHUNK_SIZE, data.length - offset);
+            System.arraycopy(data, offset, commandData, 1, chunkSize);
+
+            //Log.i(TAG, "Send data chunk");
+
+            progressHandler.handleProgress((int) (100L * offset / data.length));
+
+            if (channel.sendCommand(commandData, chunkSize + 1) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean uploadFileWindowed(byte[] filePath, byte[] data, UploadProgressHandler progressHandler) {
+        int size = data.length;
+        int window = channel.getFirmwareUploadWindow();
+        if (channel.sendCommand(buildInitCommand(new byte[]{WatchConstants.OSSW_TX_COMMAND_INIT_WINDOWED_UPLOAD, (byte)((size>>16)&0xFF), (byte)((size>>8)&0xFF), (byte)(size&0xFF), (byte) window}, filePath)) != 0) {
+            return false;
+        }
+
+        // command id and chunk number take 3 bytes of each command
+        int maxChunkSize = MAX_COMMAND_SIZE - 3;
+        int chunkCount = (size + maxChunkSize - 1) / maxChunkSize;
+        byte[] chunkCommand = new byte[MAX_COMMAND_SIZE];
+        chunkCommand[0] = WatchConstants.OSSW_TX_COMMAND_WINDOWED_UPLOAD_CHUNK;
+        WindowedUpload upload = new WindowedUpload(chunkCount, window);
+        channel.setCurrentUpload(upload);
+        try {
+            int timeouts = 0;
+            int lastAcknowledged = 0;
+            while (true) {
+                int chunkNo = upload.awaitNextChunk(chunkAckTimeout);
+
+                int acknowledged = upload.getAcknowledgedChunks();
+                if (acknowledged != lastAcknowledged) {
+                    lastAcknowledged = acknowledged;
+                    timeouts = 0;
+                    progressHandler.handleProgress(100 * acknowledged / chunkCount);
+                }
+
+                switch (chunkNo) {
+                    case WindowedUpload.FINISHED:
+                        return true;
+                    case WindowedUpload.ABORTED:
+                        return false;
+                    case WindowedUpload.TIMEOUT:
+                        if (++timeouts > WINDOWED_UPLOAD_MAX_TIMEOUTS) {
+                            Log.e(TAG, "No chunk acknowledged, chunk: " + acknowledged);
+                            return false;
+                        }
+                        upload.retransmitOldest();
+                        channel.getLinkMetrics().recordRetry();
+                        break;
+                    default:
+                        // the command is written before the future completes, so the buffer may be reused
+                        int chunkOffset = chunkNo * maxChunkSize;
+                        int chunkSize = Math.min(maxChunkSize, size - chunkOffset);
+                        chunkCommand[1] = (byte) (chunkNo >> 8);
+                        chunkCommand[2] = (byte) (chunkNo & 0xFF);
+                        System.arraycopy(data, chunkOffset, chunkCommand, 3, chunkSize);
+                        if (channel.queueCommandWithoutAck(CommandPriority.BULK, chunkCommand, chunkSize + 3).get() != 0) {
+                            return false;
+                        }
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Windowed upload interrupted");
+            return false;
+        } finally {
+            channel.setCurrentUpload(null);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.althink.android.ossw.service;
+
+/**
+ * Statistics of the link to the watch: sent packets and commands, ACK latencies, retries and timeouts.
+ * Rates are calculated over the last {@link #RATE_WINDOW} seconds.
+ */
+public class LinkMetrics {
+
+    public static final int RATE_WINDOW = 10;
+
+    // upper bounds in milliseconds of ACK latency histogram buckets, the last bucket has no bound
+    public static final int[] ACK_LATENCY_BUCKETS = {20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private long packets;
+    private long bytes;
+    private final long[] commandCounts = new long[256];
+
+    // packets and bytes sent in each of the last seconds, indexed by second modulo window size
+    private final long[] packetsPerSecond = new long[RATE_WINDOW];
+    private final long[] bytesPerSecond = new long[RATE_WINDOW];
+    private long currentSecond;
+
+    private final long[] ackLatencies = new long[ACK_LATENCY_BUCKETS.length + 1];
+    private long acks;
+    private long ackLatencySum;
+    private long maxAckLatency;
+
+    private long timeouts;
+    private long retries;
+    private long failedWrites;
+
+    private long extParamsFlushes;
+    private long extParamsFlushCommands;
+    private long extParamsFlushLatencySum;
+    private long maxExtParamsFlushLatency;
+
+    public synchronized void recordPacket(int size) {
+        int slot = advanceToCurrentSecond();
+        packets++;
+        bytes += size;
+        packetsPerSecond[slot]++;
+        bytesPerSecond[slot] += size;
+    }
+
+    public synchronized void recordCommand(int commandId) {
+        commandCounts[commandId & 0xFF]++;
+    }
+
+    public synchronized void recordAck(long latency) {
+        int bucket = 0;
+        while (bucket < ACK_LATENCY_BUCKETS.length && latency > ACK_LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        ackLatencies[bucket]++;
+        acks++;
+        ackLatencySum += latency;
+        maxAckLatency = Math.max(maxAckLatency, latency);
+    }
+
+    public synchronized void recordTimeout() {
+        timeouts++;
+    }
+
+    public synchronized void recordRetry() {
+        retries++;
+    }
+
+    public synchronized void recordFailedWrite() {
+        failedWrites++;
+    }
+
+    /**
+     * @param commands Number of commands the pending params were split into.
+     * @param latency  Time in milliseconds from the start of the flush to the ACK of its last command.
+     */
+    public synchronized void recordExtParamsFlush(int commands, long latency) {
+        extParamsFlushes++;
+        extParamsFlushCommands += commands;
+        extParamsFlushLatencySum += latency;
+        maxExtParamsFlushLatency = Math.max(maxExtParamsFlushLatency, latency);
+    }
+
+    public synchronized void reset() {
+        packets = 0;
+        bytes = 0;
+        for (int i = 0; i < commandCounts.length; i++) {
+            commandCounts[i] = 0;
+        }
+        for (int i = 0; i < RATE_WINDOW; i++) {
+            packetsPerSecond[i] = 0;
+            bytesPerSecond[i] = 0;
+        }
+        for (int i = 0; i < ackLatencies.length; i++) {
+            ackLatencies[i] = 0;
+        }
+        acks = 0;
+        ackLatencySum = 0;
+        maxAckLatency = 0;
+        timeouts = 0;
+        retries = 0;
+        failedWrites = 0;
+        extParamsFlushes = 0;
+        extParamsFlushCommands = 0;
+        extParamsFlushLatencySum = 0;
+        maxExtParamsFlushLatency = 0;
+    }
+
+    /**
+     * Clears the slots of seconds which passed since the last packet.
+     *
+     * @return Slot of the current second.
+     */
+    private int advanceToCurrentSecond() {
+        long second = System.currentTimeMillis() / 1000;
+        long elapsed = Math.min(second - currentSecond, RATE_WINDOW);
+        for (long s = second - elapsed + 1; s <= second; s++) {
+            int slot = (int) (s % RATE_WINDOW);
+            packetsPerSecond[slot] = 0;
+            bytesPerSecond[slot] = 0;
+        }
+        currentSecond = second;
+        return (int) (second % RATE_WINDOW);
+    }
+
+    public synchronized long getPackets() {
+        return packets;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getCommandCount(int commandId) {
+        return commandCounts[commandId & 0xFF];
+    }
+
+    /**
+     * @return Average number of packets per second sent in the last {@link #RATE_WINDOW} seconds.
+     */
+    public synchronized double getPacketRate() {
+        advanceToCurrentSecond();
+        return (double) sum(packetsPerSecond) / RATE_WINDOW;
+    }
+
+    /**
+     * @return Average number of bytes per second sent in the last {@link #RATE_WINDOW} seconds.
+     */
+    public synchronized double getByteRate() {
+        advanceToCurrentSecond();
+        return (double) sum(bytesPerSecond) / RATE_WINDOW;
+    }
+
+    /**
+     * @return Number of ACKs in each bucket of {@link #ACK_LATENCY_BUCKETS}, plus the number of slower ones.
+     */
+    public synchronized long[] getAckLatencyHistogram() {
+        return ackLatencies.clone();
+    }
+
+    public synchronized long getAcks() {
+        return acks;
+    }
+
+    public synchronized long getAverageAckLatency() {
+        return acks > 0 ? ackLatencySum / acks : 0;
+    }
+
+    public synchronized long getMaxAckLatency() {
+        return maxAckLatency;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    public synchronized long getFailedWrites() {
+        return failedWrites;
+    }
+
+    public synchronized long getExtParamsFlushes() {
+        return extParamsFlushes;
+    }
+
+    public synchronized double getAverageExtParamsFlushCommands() {
+        return extParamsFlushes > 0 ? (double) extParamsFlushCommands / extParamsFlushes : 0;
+    }
+
+    public synchronized long getAverageExtParamsFlushLatency() {
+        return extParamsFlushes > 0 ? extParamsFlushLatencySum / extParamsFlushes : 0;
+    }
+
+    public synchronized long getMaxExtParamsFlushLatency() {
+        return maxExtParamsFlushLatency;
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,135 @@
+package com.althink.android.ossw.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of a command sent to the watch. Completed with the status from command ACK
+ * (0 means success) or with one of the negative result codes.
+ */
+public class OsswCommandFuture implements Future<Integer> {
+
+    public static final int RESULT_TIMEOUT = -1;
+    public static final int RESULT_NOT_SENT = -2;
+
+    private final CommandResultHandler handler;
+    private int commandSeq = -1;
+    private long sendTime;
+
+    private boolean done = false;
+    private boolean cancelled = false;
+    private int result;
+    private Runnable cancelAction;
+
+    public OsswCommandFuture(CommandResultHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Sequence number sent with the command in the current connection, echoed by the watch in the ACK.
+     * Assigned when the command is written, -1 before or if the firmware doesn't support sequences.
+     */
+    public synchronized int getCommandSeq() {
+        return commandSeq;
+    }
+
+    synchronized void setCommandSeq(int commandSeq) {
+        this.commandSeq = commandSeq;
+        this.sendTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Time when the command was written, used to measure ACK latency.
+     */
+    public synchronized long getSendTime() {
+        return sendTime;
+    }
+
+    public CommandResultHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Sets the action run when the future is cancelled, e.g. to stop waiting for the ACK.
+     *
+     * @return False if the future is already cancelled, the action is not run then.
+     */
+    synchronized boolean setCancelAction(Runnable cancelAction) {
+        if (cancelled) {
+            return false;
+        }
+        this.cancelAction = cancelAction;
+        return true;
+    }
+
+    /**
+     * @return True if the result was set, false if the future was already completed or cancelled.
+     */
+    synchronized boolean complete(int result) {
+        if (done) {
+            return false;
+        }
+        this.result = result;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Runnable action;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            notifyAll();
+            action = cancelAction;
+        }
+        if (action != null) {
+            action.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized Integer get() throws InterruptedException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized Integer get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long timeLeft = deadline - System.currentTimeMillis();
+            if (timeLeft <= 0) {
+                throw new TimeoutException();
+            }
+            wait(timeLeft);
+        }
+        return getResult();
+    }
+
+    private int getResult() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return result;
+    }
+}
@@ -36,43 +36,60 @@ import com.althink.android.ossw.notifications.NotificationListener;
 import com.althink.android.ossw.notifications.model.NotificationType;
 import com.althink.android.ossw.plugins.PluginDefinition;
 import com.althink.android.ossw.plugins.PluginFunctionDefinition;
-import com.althink.android.ossw.plugins.PluginManager;
+import com.althink.android.ossw.plugins.PluginCatalog;
 import com.althink.android.ossw.plugins.PluginPropertyDefinition;
+import com.althink.android.ossw.plugins.PluginPropertyType;
+import com.althink.android.ossw.plugins.PluginRegistry;
 import com.althink.android.ossw.service.ble.BleDeviceService;
+import com.althink.android.ossw.service.ble.BleConnectionMode;
 import com.althink.android.ossw.service.ble.BleConnectionStatus;
 import com.althink.android.ossw.service.ble.BleConnectionStatusHandler;
 import com.althink.android.ossw.service.ble.CharacteristicChangeHandler;
 import com.althink.android.ossw.service.ble.ReadCharacteristicHandler;
+import com.althink.android.ossw.service.ble.WatchDataHandler;
+import com.althink.android.ossw.service.ble.WatchTransport;
 import com.althink.android.ossw.utils.StringNormalizer;
 import com.althink.android.ossw.watch.WatchConstants;
+import com.althink.android.ossw.watchsets.CompiledWatchSet;
 import com.althink.android.ossw.watchsets.DataSourceType;
 import com.althink.android.ossw.watchsets.WatchSetType;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class OsswService extends Service {
     private final static String TAG = OsswService.class.getSimpleName();
 
     public final static UUID OSSW_SERVICE_UUID = UUID.fromString("58C60001-20B7-4904-96FA-CBA8E1B95702");
+    public final static UUID OSSW_TX_CHARACTERISTIC_UUID = UUID.fromString("58C60002-20B7-4904-96FA-CBA8E1B95702");
+    public final static UUID OSSW_RX_CHARACTERISTIC_UUID = UUID.fromString("58C60003-20B7-4904-96FA-CBA8E1B95702");
 
     public static final int TEST_NOTIFICATION_ID = 0x10;
     public static final int TEST_ALERT_ID = 0x11;
@@ -90,8 +107,16 @@ public class OsswService extends Service {
             "com.althink.android.ossw.ACTION_WATCH_AUTO_RECONNECT";
 
     private final static int FILE_UPLOAD_NOTIFICATION_ID = 1;
-    public static final int MAX_COMMAND_SIZE = 256;
+    public static final int MAX_COMMAND_SIZE = CommandChannel.MAX_COMMAND_SIZE;
     public static final String LAST_WATCH_ADDRESS = "last_watch_address";
+    public static final String FAST_DATA_TRANSFER = "fast_data_transfer";
+    public static final String EXT_PARAMS_MIN_INTERVAL = "ext_params_min_interval";
+    public static final String LOW_POWER_IDLE_CONNECTION = "low_power_idle_connection";
+    public static final String IDLE_CONNECTION_TIMEOUT = "idle_connection_timeout";
+    private static final int FAST_DATA_TRANSFER_WRITES_IN_FLIGHT = 4;
+    private static final int NOTIFICATION_UPLOAD_LOCK_TIMEOUT = 30000;
+    private static final int CAPABILITIES_ACK_TIMEOUT = 2000;
+    private static final String UPLOADED_WATCHSETS_DIR = "uploaded_watchsets";
 
     private static OsswService INSTANCE;
 
@@ -100,12 +125,14 @@ public class OsswService extends Service {
     private NotificationHandler lastNotificationHandler = null;
 
     private BleDeviceService bleService;
+    // link used for sending commands, the BLE device unless replaced for testing
+    private WatchTransport watchTransport;
 
     private WatchOperationContext watchContext;
 
     private Handler pluginPropertyHandler = new Handler();
 
-    private List<PluginDefinition> plugins;
+    private final PluginRegistry pluginRegistry = new PluginRegistry();
 
     private Map<String, ContentObserver> contentObservers = new HashMap<>();
 
@@ -113,21 +140,40 @@ public class OsswService extends Service {
 
     private final HashMap<String, ExternalServiceConnection> externalServiceConnections = new HashMap<>();
 
-    private AtomicInteger commandAck = new AtomicInteger();
+    // command link and uploads, independent of the BLE device to run them also against fakes
+    private final CommandChannel commandChannel = new CommandChannel(OSSW_TX_CHARACTERISTIC_UUID);
+    private final FileUploader fileUploader = new FileUploader(commandChannel);
+    // only one notification may be uploaded at a time, its commands must not mix with other notification
+    private final Semaphore notificationUploadLock = new Semaphore(1, true);
+    // file uploads have their own worker, so they don't delay notification tasks
+    private final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
 
+    private volatile PendingUpload pendingUpload;
     private ConcurrentHashMap<Integer, Object> extParamsToSend = new ConcurrentHashMap<>();
+    // external params used by the screen shown on the watch, null if all params should be sent
+    private volatile boolean[] visibleExtParams;
     private Map<Integer, Object> sentExtParamsCache = new HashMap<>();
 
-    private ExecutorService extParamUploadExecutor = new ThreadPoolExecutor(1, 1,
-            0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(), new ThreadPoolExecutor.DiscardPolicy());
+    // last time the value of a param was sent, accessed only from the ext param upload thread
+    private Map<Integer, Long> sentExtParamsTimes = new HashMap<>();
+    private volatile long lastExtParamsCommandTime = 0;
+    private final AtomicBoolean extParamUpdateScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean extParamsResyncScheduled = new AtomicBoolean(false);
+
+    private ScheduledExecutorService extParamUploadExecutor = Executors.newSingleThreadScheduledExecutor();
 
     private CharacteristicChangeHandler characteristicChangeHandler = new CharacteristicChangeHandler() {
         @Override
         public void handleCharacteristicChange(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            byte[] value = characteristic.getValue();
-            //Log.i(TAG, "onCharacteristicChanged: " + characteristic.getUuid() + ", " + Arrays.toString(value));
-            if (value.length > 0) {
+            //Log.i(TAG, "onCharacteristicChanged: " + characteristic.getUuid() + ", " + Arrays.toString(characteristic.getValue()));
+            watchDataHandler.handleWatchData(characteristic.getValue());
+        }
+    };
+
+    private final WatchDataHandler watchDataHandler = new WatchDataHandler() {
+        @Override
+        public void handleWatchData(byte[] value) {
+            if (value.length > 0 && !commandChannel.handleWatchData(value)) {
                 //Log.i(TAG, "Handle command: " + Arrays.toString(value));
                 switch (value[0]) {
                     case WatchConstants.OSSW_RX_COMMAND_SET_WATCH_SET_ID:
@@ -138,18 +184,17 @@ public class OsswService extends Service {
                             sendAllExternalParamsValues();
                         }
                         break;
+                    case WatchConstants.OSSW_RX_COMMAND_SET_SCREEN:
+                        if (value.length > 1) {
+                            setActiveScreen(value[1] & 0xFF);
+                        }
+                        break;
                     case WatchConstants.OSSW_RX_COMMAND_INVOKE_EXTERNAL_FUNCTION:
                         invokeExtensionFunction(value[1]);
                         break;
                     case WatchConstants.OSSW_RX_COMMAND_INVOKE_NOTIFICATION_FUNCTION:
                         invokeNotificationFunction(value[1], Arrays.copyOfRange(value, 2, value.length));
                         break;
-                    case WatchConstants.OSSW_RX_COMMAND_COMMAND_ACK:
-                        synchronized (commandAck) {
-                            commandAck.set(value[1] & 0xFF);
-                            commandAck.notify();
-                        }
-                        break;
                 }
             }
         }
@@ -181,31 +226,59 @@ public class OsswService extends Service {
                     return;
                 }
 
-                //Log.i(TAG, "Remove all plugins from package: " + pkg);
+                PluginCatalog catalog = PluginCatalog.getInstance(context);
+                if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+                    catalog.removePackage(pkg);
+                } else {
+                    catalog.updatePackage(pkg);
+                }
+                reloadPackagePlugins(pkg);
+            } catch (Exception e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+    };
 
-                Iterator<PluginDefinition> i = plugins.iterator();
-                while (i.hasNext()) {
-                    PluginDefinition plugin = i.next();
+    /**
+     * Replaces plugins of the package with the ones in the catalog.
+     */
+    private void reloadPackagePlugins(String pkg) {
+        //Log.i(TAG, "Remove all plugins from package: " + pkg);
 
-                    if (pkg.equals(plugin.getPackageName())) {
-                        i.remove();
-                        disconnectFromPlugin(plugin);
-                    }
-                }
+        for (PluginDefinition plugin : pluginRegistry.removePackage(pkg)) {
+            disconnectFromPlugin(plugin);
+        }
 
-                if (!Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
-                    List<PluginDefinition> newPlugins = new PluginManager(context).findPlugins(pkg);
-                    for (PluginDefinition plugin : newPlugins) {
-                        //Log.i(TAG, "Found plugin: " + plugin.getPluginId());
-                        connectToPlugin(plugin);
-                    }
-                    plugins.addAll(newPlugins);
-                }
+        List<PluginDefinition> newPlugins = PluginCatalog.getInstance(getApplicationContext()).getPlugins(pkg);
+        for (PluginDefinition plugin : newPlugins) {
+            //Log.i(TAG, "Found plugin: " + plugin.getPluginId());
+            connectToPlugin(plugin);
+        }
+        pluginRegistry.addAll(newPlugins);
+    }
+
+    /**
+     * Looks for plugins installed or updated while the package broadcasts were not received.
+     */
+    private class ReconcilePlugins extends AsyncTask<Void, Void, Set<String>> {
+
+        @Override
+        protected Set<String> doInBackground(Void... params) {
+            try {
+                return PluginCatalog.getInstance(getApplicationContext()).reconcile();
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage(), e);
+                return Collections.emptySet();
             }
         }
-    };
+
+        @Override
+        protected void onPostExecute(Set<String> changedPackages) {
+            for (String pkg : changedPackages) {
+                reloadPackagePlugins(pkg);
+            }
+        }
+    }
 
     private void sendAllExternalParamsValues() {
         int paramId = 0;
@@ -220,7 +293,13 @@ public class OsswService extends Service {
     }
 
     private void resetSentExtParamsCache() {
-        sentExtParamsCache.clear();
+        extParamUploadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sentExtParamsCache.clear();
+                sentExtParamsTimes.clear();
+            }
+        });
     }
 
     private void broadcastUpdate(final String action) {
@@ -234,10 +313,39 @@ public class OsswService extends Service {
     //  }
 
     public void setWatchOperationContext(WatchOperationContext watchContext) {
+        pluginRegistry.setExternalParameters(watchContext != null ? watchContext.getExternalParameters() : null);
         this.watchContext = watchContext;
+        // the screen is unknown until the watch reports it
+        visibleExtParams = null;
         resetSentExtParamsCache();
     }
 
+    /**
+     * Params not used by the active screen are sent when a screen using them is shown.
+     */
+    private void setActiveScreen(int screen) {
+        WatchOperationContext ctx = watchContext;
+        if (ctx == null || ctx.getExternalParameters() == null || ctx.getScreenParameters() == null
+                || screen >= ctx.getScreenParameters().size()) {
+            visibleExtParams = null;
+        } else {
+            boolean[] visible = new boolean[ctx.getExternalParameters().size()];
+            // params not used by any screen are always sent
+            Arrays.fill(visible, true);
+            for (List<Integer> screenParams : ctx.getScreenParameters()) {
+                for (int paramId : screenParams) {
+                    visible[paramId] = false;
+                }
+            }
+            for (int paramId : ctx.getScreenParameters().get(screen)) {
+                visible[paramId] = true;
+            }
+            visibleExtParams = visible;
+        }
+        //Log.i(TAG, "Active screen: " + screen);
+        scheduleExtParamUpdate();
+    }
+
     public void createOrUpdateWatchSet(WatchSetType type, String name, String source, WatchOperationContext watchContext, int id) {
         OsswDatabaseHelper.getInstance(getApplicationContext()).addWatchSet(type, name, source, watchContext, id);
     }
@@ -259,7 +367,7 @@ public class OsswService extends Service {
         @Override
         protected Void doInBackground(Object... params) {
 
-            if (!bleService.isConnected()) {
+            if (!watchTransport.isConnected()) {
 
                 return null;
             }
@@ -269,11 +377,11 @@ public class OsswService extends Service {
                     internalUploadNotification((int) params[1], (NotificationType) params[2], (byte[]) params[3], (int) params[4], (int) params[5], (NotificationHandler) params[6]);
                     break;
                 case EXTEND_ALERT:
-                    sendOsswCommand(new byte[]{0x43, (byte) (((int) params[1]) >> 8), (byte) (((int) params[1]) & 0xFF), (byte) (((int) params[2]) >> 8), (byte) (((int) params[2]) & 0xFF)});
+                    commandChannel.sendBatchableCommandAsync(CommandPriority.ALERT, new byte[]{0x43, (byte) (((int) params[1]) >> 8), (byte) (((int) params[1]) & 0xFF), (byte) (((int) params[2]) >> 8), (byte) (((int) params[2]) & 0xFF)}, null);
                     break;
                 case CLOSE_ALERT:
                     //Log.i(TAG, "Close notification");
-                    sendOsswCommand(new byte[]{0x44, (byte) (((int) params[1]) >> 8), (byte) (((int) params[1]) & 0xFF)});
+                    commandChannel.sendBatchableCommandAsync(CommandPriority.ALERT, new byte[]{0x44, (byte) (((int) params[1]) >> 8), (byte) (((int) params[1]) & 0xFF)}, null);
                     break;
             }
 
@@ -285,15 +393,11 @@ public class OsswService extends Service {
         bleService.writeDescriptor(descriptor);
     }
 
-    private void writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] data) {
-        bleService.writeCharacteristic(characteristic, data);
-    }
-
     private enum NotificationOperation {
         UPLOAD, EXTEND_ALERT, CLOSE_ALERT
     }
 
-    private void internalUploadNotification(int notificationId, NotificationType type, byte[] data, int vibrationPattern, int timeout, NotificationHandler handler) {
+    private void internalUploadNotification(int notificationId, final NotificationType type, byte[] data, int vibrationPattern, int timeout, final NotificationHandler handler) {
         switch (type) {
             case ALERT:
                 data = arrayConcatenate(new byte[]{
@@ -326,43 +430,76 @@ public class OsswService extends Service {
                 break;
         }
         int size = data.length;
+        final byte[] notificationData = data;
+        final CommandPriority priority = NotificationType.ALERT == type ? CommandPriority.ALERT : CommandPriority.INTERACTIVE;
 
         //Log.i(TAG, "Notification data to upload: " + Arrays.toString(data));
 
-        boolean allow;
-
-        //Log.i(TAG, "Request notification upload permission");
-
-        allow = sendOsswCommand(new byte[]{0x40, (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF)}) == 0;
-        if (!allow) {
-            //Log.i(TAG, "Upload NOT allowed, skip notification upload");
+        try {
+            if (!notificationUploadLock.tryAcquire(NOTIFICATION_UPLOAD_LOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Previous notification upload not finished, skip notification upload");
+                return;
+            }
+        } catch (InterruptedException e) {
             return;
-        } else {
-            //Log.i(TAG, "Upload ALLOWED");
         }
+        watchTransport.beginTransfer();
 
-        int sizeLeft = data.length;
-
-        int dataPtr = 0;
-        byte[] dataCommand = new byte[MAX_COMMAND_SIZE];
-        dataCommand[0] = 0x41;
-        while (sizeLeft > 0) {
-            int dataInPacket = sizeLeft > (MAX_COMMAND_SIZE - 1) ? (MAX_COMMAND_SIZE - 1) : sizeLeft;
+        //Log.i(TAG, "Request notification upload permission");
 
-            for (int i = 0; i < dataInPacket; i++) {
-                dataCommand[i + 1] = data[dataPtr++];
+        sendOsswCommandAsync(priority, new byte[]{0x40, (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF)}, new CommandResultHandler() {
+            @Override
+            public void handleResult(int status) {
+                if (status != 0) {
+                    //Log.i(TAG, "Upload NOT allowed, skip notification upload");
+                    finishNotificationUpload();
+                    return;
+                }
+                sendNotificationData(priority, notificationData, 0, type, handler);
             }
+        });
+    }
 
-            sendOsswCommand(dataCommand, dataInPacket + 1);
+    // lets the next notification be uploaded
+    private void finishNotificationUpload() {
+        watchTransport.endTransfer();
+        notificationUploadLock.release();
+    }
 
-            sizeLeft -= (MAX_COMMAND_SIZE - 1);
+    /**
+     * Sends next part of notification data when the previous one was acknowledged, commits the
+     * notification after the last one.
+     */
+    private void sendNotificationData(final CommandPriority priority, final byte[] data, final int offset, final NotificationType type, final NotificationHandler handler) {
+        if (offset >= data.length) {
+            //Log.i(TAG, "Commit notification");
+            sendOsswCommandAsync(priority, new byte[]{0x42}, new CommandResultHandler() {
+                @Override
+                public void handleResult(int status) {
+                    finishNotificationUpload();
+                    if (NotificationType.ALERT == type) {
+                        lastNotificationHandler = handler;
+                    }
+                }
+            });
+            return;
         }
-        sendOsswCommand(new byte[]{0x42});
-        //Log.i(TAG, "Commit notification");
 
-        if (NotificationType.ALERT == type) {
-            lastNotificationHandler = handler;
-        }
+        final int dataInPacket = Math.min(MAX_COMMAND_SIZE - 1, data.length - offset);
+        byte[] dataCommand = new byte[dataInPacket + 1];
+        dataCommand[0] = 0x41;
+        System.arraycopy(data, offset, dataCommand, 1, dataInPacket);
+
+        sendOsswCommandAsync(priority, dataCommand, new CommandResultHandler() {
+            @Override
+            public void handleResult(int status) {
+                if (status == OsswCommandFuture.RESULT_NOT_SENT) {
+                    finishNotificationUpload();
+                    return;
+                }
+                sendNotificationData(priority, data, offset + dataInPacket, type, handler);
+            }
+        });
     }
 
     private static byte[] arrayConcatenate(byte[] first, byte[] second) {
@@ -375,6 +512,10 @@ public class OsswService extends Service {
         public OsswService getService() {
             return OsswService.this;
         }
+
+        public LinkMetrics getLinkMetrics() {
+            return commandChannel.getLinkMetrics();
+        }
     }
 
     public Object getPropertyFromExtension(String pluginId, String property) {
@@ -383,6 +524,15 @@ public class OsswService extends Service {
             return null;
         }
 
+        ExternalServiceConnection connection = externalServiceConnections.get(pluginId);
+        if (connection != null && connection.isPushSupported()) {
+            Object pushedValue = convertPropertyValue(connection.getPropertyValue(property), propertyDefinition.getType());
+            if (pushedValue != null) {
+                return pushedValue;
+            }
+            // the property wasn't pushed yet, read it from the content provider
+        }
+
         Cursor query = getContentResolver().query(Uri.parse("content://" + pluginId + "/properties"), new String[]{property}, null, null, null);
         if (query == null) {
             return null;
@@ -408,6 +558,76 @@ public class OsswService extends Service {
         return value;
     }
 
+    /**
+     * Converts the value pushed by a plugin to the type used for values read from its content provider.
+     */
+    private static Object convertPropertyValue(Object value, PluginPropertyType type) {
+        if (value == null) {
+            return null;
+        }
+        switch (type) {
+            case ENUM:
+            case INTEGER:
+                return value instanceof Number ? ((Number) value).intValue() : null;
+            case FLOAT:
+                return value instanceof Number ? ((Number) value).floatValue() : null;
+            case STRING:
+                return value.toString();
+        }
+        return null;
+    }
+
+    /**
+     * Notified when a property of a plugin may have changed, e.g. to refresh a preview.
+     */
+    public interface PluginPropertyListener {
+        void onPropertyChange(String pluginId);
+    }
+
+    private final List<PluginPropertyListener> pluginPropertyListeners = new CopyOnWriteArrayList<>();
+
+    public void addPluginPropertyListener(PluginPropertyListener listener) {
+        pluginPropertyListeners.add(listener);
+    }
+
+    public void removePluginPropertyListener(PluginPropertyListener listener) {
+        pluginPropertyListeners.remove(listener);
+    }
+
+    private void notifyPluginPropertyListeners(String pluginId) {
+        for (PluginPropertyListener listener : pluginPropertyListeners) {
+            listener.onPropertyChange(pluginId);
+        }
+    }
+
+    private final ExternalServiceConnection.PropertyValuesHandler propertyValuesHandler = new ExternalServiceConnection.PropertyValuesHandler() {
+        @Override
+        public void handlePropertyValues(String pluginId, Bundle values) {
+            notifyPluginPropertyListeners(pluginId);
+
+            if (watchContext == null || watchContext.getExternalParameters() == null) {
+                return;
+            }
+
+            List<WatchExtensionProperty> params = watchContext.getExternalParameters();
+            boolean changed = false;
+            for (int propertyId : pluginRegistry.getParamSlots(pluginId)) {
+                WatchExtensionProperty property = propertyId < params.size() ? params.get(propertyId) : null;
+                if (property != null && values.containsKey(property.getPropertyId())) {
+                    PluginPropertyDefinition definition = getPropertyDefinition(pluginId, property.getPropertyId());
+                    Object value = definition != null ? convertPropertyValue(values.get(property.getPropertyId()), definition.getType()) : null;
+                    if (value != null) {
+                        extParamsToSend.put(propertyId, value);
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                scheduleExtParamUpdate();
+            }
+        }
+    };
+
     private class PluginPropertyObserver extends ContentObserver {
         private final String TAG = "PluginPropertyObserver";
         private String pluginId;
@@ -421,16 +641,25 @@ public class OsswService extends Service {
         public void onChange(boolean selfChange) {
             //Log.d(TAG, "onChange: " + selfChange + ", plugin: " + pluginId);
 
+            notifyPluginPropertyListeners(pluginId);
+
             if (watchContext == null || watchContext.getExternalParameters() == null) {
                 return;
             }
 
-            int propertyId = 0;
-            for (WatchExtensionProperty property : watchContext.getExternalParameters()) {
-                if (property.getPluginId().equals(pluginId)) {
+            ExternalServiceConnection connection = externalServiceConnections.get(pluginId);
+            boolean pushSupported = connection != null && connection.isPushSupported();
+
+            List<WatchExtensionProperty> params = watchContext.getExternalParameters();
+            for (int propertyId : pluginRegistry.getParamSlots(pluginId)) {
+                if (propertyId < params.size()) {
+                    WatchExtensionProperty property = params.get(propertyId);
+                    // changed values are pushed by the plugin, except the properties it never pushed
+                    if (pushSupported && connection.getPropertyValue(property.getPropertyId()) != null) {
+                        continue;
+                    }
                     handleExternalPropertyChange(propertyId, property);
                 }
-                propertyId++;
             }
         }
 
@@ -444,16 +673,7 @@ public class OsswService extends Service {
     }
 
     private PluginPropertyDefinition getPropertyDefinition(String pluginId, String propertyId) {
-        for (PluginDefinition plugin : plugins) {
-            if (plugin.getPluginId().equals(pluginId)) {
-                for (PluginPropertyDefinition propertyDef : plugin.getProperties()) {
-                    if (propertyDef.getName().equals(propertyId)) {
-                        return propertyDef;
-                    }
-                }
-            }
-        }
-        return null;
+        return pluginRegistry.getPropertyDefinition(pluginId, propertyId);
     }
 
     @Override
@@ -468,10 +688,10 @@ public class OsswService extends Service {
                     @Override
                     public void handleConnectionStatusChange(BleConnectionStatus status) {
                         Log.i(TAG, "handleConnectionStatusChange: " + status);
+                        commandChannel.handleConnectionStatusChange(status);
                         switch (status) {
                             case DISCONNECTED:
                                 broadcastUpdate(ACTION_WATCH_DISCONNECTED);
-                                clearPendingCommands();
                                 break;
                             case CONNECTING:
                                 broadcastUpdate(ACTION_WATCH_CONNECTING);
@@ -479,6 +699,7 @@ public class OsswService extends Service {
                             case CONNECTED:
 
                                 resetSentExtParamsCache();
+                                visibleExtParams = null;
                                 broadcastUpdate(ACTION_WATCH_CONNECTED);
 
 //                        // check version
@@ -499,6 +720,7 @@ public class OsswService extends Service {
                                             } else {
                                                 // supported firmware
                                                 sendConnectionConfirmation();
+                                                new QueryFirmwareCapabilities().executeOnExecutor(uploadExecutor);
                                             }
                                         }
                                     });
@@ -510,8 +732,10 @@ public class OsswService extends Service {
 
                                 bleService.setCharacteristicNotification(getOsswRxCharacteristic(), true);
 
-
                                 SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(OsswService.this);
+                                configureTxWriteType(sharedPref.getBoolean(FAST_DATA_TRANSFER, false));
+                                configureConnectionMode(sharedPref);
+
                                 boolean syncTime = sharedPref.getBoolean("synchronize_time", true);
 
                                 if (syncTime) {
@@ -524,11 +748,15 @@ public class OsswService extends Service {
                         }
                     }
                 }, characteristicChangeHandler);
+                watchTransport = bleService;
+                commandChannel.setWatchTransport(bleService);
 
-                plugins = new PluginManager(getApplicationContext()).findPlugins();
+                List<PluginDefinition> plugins = PluginCatalog.getInstance(getApplicationContext()).getPlugins();
+                pluginRegistry.addAll(plugins);
                 for (PluginDefinition plugin : plugins) {
                     connectToPlugin(plugin);
                 }
+                new ReconcilePlugins().execute();
 
                 IntentFilter filter = new IntentFilter();
                 filter.addAction(Intent.ACTION_PACKAGE_ADDED);
@@ -539,6 +767,8 @@ public class OsswService extends Service {
                 registerReceiver(packageChangeReceiver, filter);
                 registerReceiver(fakeAlertReceiver, new IntentFilter(CLOSE_FAKE_ALARM_INTENT_ACTION));
 
+                commandChannel.start();
+
                 started = true;
                 INSTANCE = this;
             }
@@ -555,21 +785,48 @@ public class OsswService extends Service {
     }
 
     private void sendConnectionConfirmation() {
-            if (!bleService.isConnected()) {
+            if (!watchTransport.isConnected()) {
                 return;
             }
 
-            BluetoothGattCharacteristic txCharact = getOsswTxCharacteristic();
-            if (txCharact == null) {
-                return;
-            }
+            commandChannel.writeRawCommand(new byte[]{0x01});
+    }
+
+    private void configureTxWriteType(boolean fastTransfer) {
+        BluetoothGattCharacteristic txCharact = getOsswTxCharacteristic();
+        if (txCharact == null) {
+            return;
+        }
+
+        if (fastTransfer && (txCharact.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            Log.i(TAG, "Use write without response");
+            txCharact.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            bleService.setMaxWritesInFlight(FAST_DATA_TRANSFER_WRITES_IN_FLIGHT);
+        } else {
+            txCharact.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            bleService.setMaxWritesInFlight(BleDeviceService.DEFAULT_MAX_WRITES_IN_FLIGHT);
+        }
+    }
 
-            writeCharacteristic(txCharact, new byte[]{0x01});
+    private void configureConnectionMode(SharedPreferences sharedPref) {
+        try {
+            bleService.setIdleTimeout(Long.parseLong(sharedPref.getString(IDLE_CONNECTION_TIMEOUT, String.valueOf(BleDeviceService.DEFAULT_IDLE_TIMEOUT))));
+        } catch (NumberFormatException e) {
+            bleService.setIdleTimeout(BleDeviceService.DEFAULT_IDLE_TIMEOUT);
+        }
+        bleService.setIdleConnectionMode(sharedPref.getBoolean(LOW_POWER_IDLE_CONNECTION, false) ? BleConnectionMode.LOW_POWER : BleConnectionMode.BALANCED);
+    }
+
+    /**
+     * @return Average number of bytes per second sent during transfers in given connection mode.
+     */
+    public long getTransferThroughput(BleConnectionMode mode) {
+        return bleService.getTransferThroughput(mode);
     }
 
     private void connectToPlugin(PluginDefinition plugin) {
         //Log.i(TAG, "Connect to plugin: " + plugin.getPluginId());
-        ExternalServiceConnection connection = new ExternalServiceConnection();
+        ExternalServiceConnection connection = new ExternalServiceConnection(plugin.getPluginId(), pluginPropertyHandler, propertyValuesHandler);
 
         // bind plugin service
         Intent serviceIntent = new Intent();
@@ -598,7 +855,26 @@ public class OsswService extends Service {
         }
     }
 
-    private void clearPendingCommands() {
+    private class QueryFirmwareCapabilities extends AsyncTask<Void, Void, Void> {
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            if (!watchTransport.isConnected()) {
+                return null;
+            }
+            // capabilities are delivered in a separate message before the ACK,
+            // older firmware doesn't support the command and uses only basic features
+            if (commandChannel.sendCommand(CommandPriority.INTERACTIVE, new byte[]{WatchConstants.OSSW_TX_COMMAND_GET_CAPABILITIES}, 1, CAPABILITIES_ACK_TIMEOUT) != 0) {
+                Log.i(TAG, "Firmware capabilities not available");
+            }
+
+            PendingUpload upload = pendingUpload;
+            if (upload != null && commandChannel.hasCapability(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD)) {
+                Log.i(TAG, "Resume interrupted upload: " + upload.fileName);
+                new UploadDataToWatch().executeOnExecutor(uploadExecutor, upload.type, upload.fileName, upload.data, upload.extWatchSetId);
+            }
+            return null;
+        }
     }
 
     private boolean isFirmwareTooOld(String version) {
@@ -710,16 +986,8 @@ public class OsswService extends Service {
     }
 
     private Integer findFunctionId(String extensionId, String functionName) {
-        for (PluginDefinition def : plugins) {
-            if (def.getPluginId().equals(extensionId)) {
-                for (PluginFunctionDefinition func : def.getFunctions()) {
-                    if (func.getName().equals(functionName)) {
-                        return func.getId();
-                    }
-                }
-            }
-        }
-        return null;
+        PluginFunctionDefinition func = pluginRegistry.getFunctionDefinition(extensionId, functionName);
+        return func != null ? func.getId() : null;
     }
 
     @Override
@@ -751,6 +1019,9 @@ public class OsswService extends Service {
         contentObservers.clear();
         unregisterReceiver(packageChangeReceiver);
         unregisterReceiver(fakeAlertReceiver);
+        commandChannel.shutdown();
+        extParamUploadExecutor.shutdownNow();
+        uploadExecutor.shutdownNow();
         close();
         started = false;
         INSTANCE = null;
@@ -784,6 +1055,7 @@ public class OsswService extends Service {
     public void disconnect() {
         Log.i(TAG, "Disconnect");
         // we don't want to automatically connect to the watch that was disconnected by the user
+        pendingUpload = null;
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(OsswService.this);
         sharedPref.edit().remove(LAST_WATCH_ADDRESS).commit();
         bleService.disconnect();
@@ -802,29 +1074,71 @@ public class OsswService extends Service {
         return bleService.getConnectionStatus();
     }
 
+    public LinkMetrics getLinkMetrics() {
+        return commandChannel.getLinkMetrics();
+    }
+
+    public int getCommandQueueDepth(CommandPriority priority) {
+        return commandChannel.getQueueDepth(priority);
+    }
+
+    public int getMaxCommandQueueDepth(CommandPriority priority) {
+        return commandChannel.getMaxQueueDepth(priority);
+    }
+
+    private static class PendingUpload {
+        private final UploadDataType type;
+        private final String fileName;
+        private final byte[] data;
+        private final Integer extWatchSetId;
+
+        private PendingUpload(UploadDataType type, String fileName, byte[] data, Integer extWatchSetId) {
+            this.type = type;
+            this.fileName = fileName;
+            this.data = data;
+            this.extWatchSetId = extWatchSetId;
+        }
+    }
+
     private class UploadDataToWatch extends AsyncTask<Object, Void, Void> {
 
         @Override
         protected Void doInBackground(Object... params) {
-            internalUploadData((UploadDataType) params[0], (String)params[1], (byte[]) params[2]);
+            watchTransport.beginTransfer();
+            try {
+                internalUploadData((UploadDataType) params[0], (String) params[1], (byte[]) params[2], (Integer) params[3]);
+            } finally {
+                watchTransport.endTransfer();
+            }
             return null;
         }
     }
 
     public void uploadData(UploadDataType type, String fileName, byte[] data) {
-        new UploadDataToWatch().execute(type, fileName, data);
+        new UploadDataToWatch().executeOnExecutor(uploadExecutor, type, fileName, data, null);
+    }
+
+    /**
+     * Uploads compiled watch set, if the watch supports it only changes against previously uploaded
+     * version of the same watch set are sent.
+     */
+    public void uploadWatchSet(UploadDataType type, CompiledWatchSet watchSet) {
+        new UploadDataToWatch().executeOnExecutor(uploadExecutor, type, watchSet.getName(), watchSet.getWatchData(), watchSet.getId());
     }
 
-    private void internalUploadData(UploadDataType type, String fileName, byte[] data) {
+    private void internalUploadData(UploadDataType type, String fileName, byte[] data, Integer extWatchSetId) {
 
-        if (!bleService.isConnected()) {
+        // a newer upload request replaces the interrupted one
+        pendingUpload = null;
+
+        if (!watchTransport.isConnected()) {
             Log.i(TAG, "BLE is not connected, cancel upload");
             handleUploadFailed();
             return;
         }
 
-        NotificationManagerCompat notifyManager = NotificationManagerCompat.from(getApplicationContext());
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
+        final NotificationManagerCompat notifyManager = NotificationManagerCompat.from(getApplicationContext());
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
         builder.setContentTitle("Watchset upload")
                 .setContentText("Upload in progress")
                 .setSmallIcon(R.drawable.ic_file_upload_black_18dp);
@@ -842,33 +1156,27 @@ public class OsswService extends Service {
                 path = "u/";
                 break;
         }
-        byte[] filePath = cutToBytes(path+fileName, 32);
-        int size = data.length;
-        Log.i(TAG, "Init file upload: " + type + ", size: " + size);
-        if (sendOsswCommand(concat(new byte[]{0x20, (byte)((size>>16)&0xFF), (byte)((size>>8)&0xFF), (byte)(size&0xFF)}, concat(filePath, new byte[]{0}))) != 0) {
-            handleUploadFailed();
-            return;
-        }
-
-        List<byte[]> chunks = divideArray(data, 255);
-
-        int chunkNo = 0;
-        for (byte[] chunk : chunks) {
-            byte[] commandData = concat(new byte[]{0x21}, chunk);
+        path = path + fileName;
+        byte[] filePath = cutToBytes(path, 32);
+        Log.i(TAG, "Init file upload: " + type + ", size: " + data.length);
 
-            //Log.i(TAG, "Send data chunk");
+        UploadProgressHandler progressHandler = new UploadProgressHandler() {
+            @Override
+            public void handleProgress(int percent) {
+                builder.setProgress(100, percent, false);
+                notifyManager.notify(FILE_UPLOAD_NOTIFICATION_ID, builder.build());
+            }
+        };
+        // capabilities are forgotten when the upload is interrupted by disconnection
+        boolean resumable = commandChannel.hasCapability(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD);
+        byte[] previousData = extWatchSetId != null ? loadUploadedWatchSet(extWatchSetId) : null;
 
-            builder.setProgress(100, 100 * chunkNo / chunks.size(), false);
-            notifyManager.notify(FILE_UPLOAD_NOTIFICATION_ID, builder.build());
+        boolean committed = fileUploader.upload(path, filePath, data, previousData, progressHandler);
 
-            if (sendOsswCommand(commandData) != 0) {
-                handleUploadFailed();
-                return;
+        if (committed) {
+            if (extWatchSetId != null) {
+                storeUploadedWatchSet(extWatchSetId, data);
             }
-            chunkNo++;
-        }
-
-        if (sendOsswCommand(new byte[]{0x22}) == 0) {
             //Log.i(TAG, "Data uploaded successfully");
             toastHandler.post(new Runnable() {
                 @Override
@@ -879,11 +1187,56 @@ public class OsswService extends Service {
 
             notifyManager.cancel(FILE_UPLOAD_NOTIFICATION_ID);
         } else {
+            if (resumable && !watchTransport.isConnected()) {
+                // continue when the watch is connected again
+                pendingUpload = new PendingUpload(type, fileName, data, extWatchSetId);
+            }
             handleUploadFailed();
         }
 
     }
 
+    private File getUploadedWatchSetFile(int extWatchSetId) {
+        return new File(getDir(UPLOADED_WATCHSETS_DIR, MODE_PRIVATE), Integer.toString(extWatchSetId));
+    }
+
+    private byte[] loadUploadedWatchSet(int extWatchSetId) {
+        File file = getUploadedWatchSetFile(extWatchSetId);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream is = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, read);
+                }
+                return os.toByteArray();
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load uploaded watch set: " + extWatchSetId, e);
+            return null;
+        }
+    }
+
+    private void storeUploadedWatchSet(int extWatchSetId, byte[] data) {
+        try {
+            FileOutputStream os = new FileOutputStream(getUploadedWatchSetFile(extWatchSetId));
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to store uploaded watch set: " + extWatchSetId, e);
+        }
+    }
+
     private void handleUploadFailed() {
         Log.e(TAG, "Last command failed, cancel data upload");
 
@@ -900,51 +1253,15 @@ public class OsswService extends Service {
     }
 
     public int sendOsswCommand(byte[] commandData) {
-        return sendOsswCommand(commandData, commandData.length);
+        return commandChannel.sendCommand(commandData);
     }
 
     public int sendOsswCommand(byte[] commandData, int length) {
-        //Log.i(TAG, "Send command: " + bytesToHex(commandData));
-
-        int dataPtr = 0;
-        int sizeLeft = length;
-
-
-        BluetoothGattCharacteristic txCharact = getOsswTxCharacteristic();
-        if (txCharact == null) {
-            return -2;
-        }
-
-        while (sizeLeft > 0) {
-            int dataInPacket = sizeLeft > 19 ? 19 : sizeLeft;
-            byte[] bleData = new byte[dataInPacket + 1];
-
-            if (sizeLeft <= 19) {
-                if (sizeLeft == length) {
-                    //only chunk (both first and last)
-                    bleData[0] = 0x43;
-                } else {
-                    //last chunk
-                    bleData[0] = 0x42;
-                }
-            } else if (sizeLeft == length) {
-                //first chunk
-                bleData[0] = 0x40;
-            } else {
-                //central chunk
-                bleData[0] = 0x41;
-            }
-
-            for (int i = 0; i < dataInPacket; i++) {
-                bleData[i + 1] = commandData[dataPtr++];
-            }
-
-            writeCharacteristic(txCharact, bleData);
-
-            sizeLeft -= 19;
-        }
+        return commandChannel.sendCommand(commandData, length);
+    }
 
-        return waitForCommandAck();
+    public OsswCommandFuture sendOsswCommandAsync(CommandPriority priority, byte[] commandData, CommandResultHandler handler) {
+        return commandChannel.sendCommandAsync(priority, commandData, handler);
     }
 
     public static byte[] concat(byte[] first, byte[] second) {
@@ -953,40 +1270,9 @@ public class OsswService extends Service {
         return result;
     }
 
-    private int waitForCommandAck() {
-        try {
-            synchronized (commandAck) {
-                commandAck.set(-1);
-                commandAck.wait(10000);
-                return commandAck.get();
-            }
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Failed to receive command ACK");
-            return -1;
-        }
-    }
-
-    private static List<byte[]> divideArray(byte[] source, int chunksize) {
-
-        List<byte[]> result = new ArrayList<>();
-        int start = 0;
-        while (start < source.length) {
-            int end = Math.min(source.length, start + chunksize);
-            result.add(Arrays.copyOfRange(source, start, end));
-            start += chunksize;
-        }
-
-        return result;
-    }
-
     private void sendCurrentTime() {
 
-        if (!bleService.isConnected()) {
-            return;
-        }
-
-        BluetoothGattCharacteristic txCharact = getOsswTxCharacteristic();
-        if (txCharact == null) {
+        if (!watchTransport.isConnected()) {
             return;
         }
 
@@ -998,7 +1284,12 @@ public class OsswService extends Service {
             Date date = dateFormatGmt.parse(dateFormatLocal.format(new Date()));
             int currentTime = (int) (date.getTime() / 1000);
             //Log.i(TAG, "Set current time");
-            writeCharacteristic(txCharact, new byte[]{0x10, (byte) (currentTime >> 24), (byte) ((currentTime >> 16) & 0xFF), (byte) ((currentTime >> 8) & 0xFF), (byte) (currentTime & 0xFF)});
+            byte[] timeCommand = new byte[]{0x10, (byte) (currentTime >> 24), (byte) ((currentTime >> 16) & 0xFF), (byte) ((currentTime >> 8) & 0xFF), (byte) (currentTime & 0xFF)};
+            if (commandChannel.isBatchSupported()) {
+                commandChannel.sendBatchableCommandAsync(CommandPriority.INTERACTIVE, timeCommand, null);
+            } else {
+                commandChannel.writeRawCommand(timeCommand);
+            }
         } catch (Exception e) {
             // do nothing
         }
@@ -1010,8 +1301,7 @@ public class OsswService extends Service {
         if (service == null) {
             return null;
         }
-        return service
-                .getCharacteristic(UUID.fromString("58C60002-20B7-4904-96FA-CBA8E1B95702"));
+        return service.getCharacteristic(OSSW_TX_CHARACTERISTIC_UUID);
     }
 
     private BluetoothGattCharacteristic getOsswRxCharacteristic() {
@@ -1019,21 +1309,64 @@ public class OsswService extends Service {
         if (service == null) {
             return null;
         }
-        return service
-                .getCharacteristic(UUID.fromString("58C60003-20B7-4904-96FA-CBA8E1B95702"));
+        return service.getCharacteristic(OSSW_RX_CHARACTERISTIC_UUID);
     }
 
     public static OsswService getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Replaces the link used for sending commands, e.g. with a fake watch device in tests,
+     * which should pass its data to {@link #getWatchDataHandler()}.
+     */
+    void setWatchTransport(WatchTransport watchTransport) {
+        this.watchTransport = watchTransport;
+        commandChannel.setWatchTransport(watchTransport);
+    }
+
+    WatchDataHandler getWatchDataHandler() {
+        return watchDataHandler;
+    }
+
+    /**
+     * Schedules sending of all changed params in a single command. Commands are sent not more often
+     * than the configured interval, values changed in the meantime replace the ones waiting for sending.
+     */
     public void scheduleExtParamUpdate() {
-        extParamUploadExecutor.submit(new Runnable() {
+        scheduleExtParamUpdate(lastExtParamsCommandTime + getExtParamsMinInterval() - System.currentTimeMillis());
+    }
+
+    private void scheduleExtParamUpdate(long delay) {
+        if (!extParamUpdateScheduled.compareAndSet(false, true)) {
+            // params will be sent by already scheduled update
+            return;
+        }
+        extParamUploadExecutor.schedule(new Runnable() {
             @Override
             public void run() {
-                sendExternalParamsToWatch();
+                extParamUpdateScheduled.set(false);
+                try {
+                    sendExternalParamsToWatch();
+                } catch (Exception e) {
+                    Log.e(TAG, e.getMessage(), e);
+                }
             }
-        });
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private long getExtParamsMinInterval() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        try {
+            return Long.parseLong(sharedPref.getString(EXT_PARAMS_MIN_INTERVAL, getString(R.string.default_ext_params_min_interval)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private long getPropertyMinInterval(WatchExtensionProperty property) {
+        PluginPropertyDefinition definition = getPropertyDefinition(property.getPluginId(), property.getPropertyId());
+        return definition != null ? definition.getMinUpdateInterval() : 0;
     }
 
     private int calcExternalPropertySize(DataSourceType type, int range) {
@@ -1053,7 +1386,7 @@ public class OsswService extends Service {
             //       return;
         }
 
-        if (!bleService.isConnected()) {
+        if (!watchTransport.isConnected()) {
             return;
         }
 
@@ -1061,10 +1394,29 @@ public class OsswService extends Service {
 
         HashMap<Integer, Object> paramsCopy = new HashMap<>(extParamsToSend);
 
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        os.write(0x30); // command id
+        boolean[] visible = visibleExtParams;
+        final boolean delta = commandChannel.hasCapability(WatchConstants.FW_CAPABILITY_EXT_PARAMS_DELTA);
+        int commandId = delta ? WatchConstants.OSSW_TX_COMMAND_SET_EXT_PARAMS_DELTA : WatchConstants.OSSW_TX_COMMAND_SET_EXT_PARAMS;
+
+        // params are sent in as many commands as needed, the least recently sent go first
+        List<Map.Entry<Integer, Object>> entries = new ArrayList<>(paramsCopy.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Integer, Object>>() {
+            @Override
+            public int compare(Map.Entry<Integer, Object> lhs, Map.Entry<Integer, Object> rhs) {
+                Long lhsTime = sentExtParamsTimes.get(lhs.getKey());
+                Long rhsTime = sentExtParamsTimes.get(rhs.getKey());
+                long l = lhsTime != null ? lhsTime : 0;
+                long r = rhsTime != null ? rhsTime : 0;
+                return l < r ? -1 : (l == r ? lhs.getKey().compareTo(rhs.getKey()) : 1);
+            }
+        });
+        List<ByteArrayOutputStream> commands = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+        // time to wait for params which were not sent now
+        long nextUpdateDelay = -1;
 
-        for (Map.Entry<Integer, Object> entry : paramsCopy.entrySet()) {
+        for (Map.Entry<Integer, Object> entry : entries) {
 
             byte paramId = entry.getKey().byteValue();
             Object value = entry.getValue();
@@ -1073,59 +1425,162 @@ public class OsswService extends Service {
                 //Log.i(TAG, "Skip param: " + paramId);
                 continue;
             }
-            //Log.i(TAG, "Send param: " + paramId);
             WatchExtensionProperty property = ctx.getExternalParameters().get(paramId);
 
-            switch (property.getType()) {
-                case NUMBER:
-                    Integer intValue = buildIntValue(value, property.getRange());
-                    int fieldSize = calcExternalPropertySize(property.getType(), property.getRange());
+            if (visible != null && entry.getKey() < visible.length && !visible[entry.getKey()]) {
+                // not shown now, stays pending until its screen is shown
+                continue;
+            }
 
-                    if (os.size() + 2 + fieldSize > MAX_COMMAND_SIZE) {
-                        // no more space in command
-                        break;
-                    }
+            Long lastSendTime = sentExtParamsTimes.get(entry.getKey());
+            if (lastSendTime != null) {
+                long delay = lastSendTime + getPropertyMinInterval(property) - now;
+                if (delay > 0) {
+                    // param updated too recently, the latest value will be sent later
+                    nextUpdateDelay = nextUpdateDelay < 0 ? delay : Math.min(nextUpdateDelay, delay);
+                    continue;
+                }
+            }
+            //Log.i(TAG, "Send param: " + paramId);
 
-                    os.write(paramId);
-                    os.write(fieldSize);
-                    switch (fieldSize) {
-                        case 4:
-                            os.write((intValue) >> 24 & 0xFF);
-                        case 3:
-                            os.write((intValue) >> 16 & 0xFF);
-                        case 2:
-                            os.write((intValue) >> 8 & 0xFF);
-                        case 1:
-                            os.write((intValue) & 0xFF);
-                    }
-                    break;
-                case STRING:
-                    String v = (String) value;
-                    v = StringNormalizer.removeAccents(v);
-                    byte[] data = cutToBytes(v, property.getRange());
+            byte[] data = encodeExtParamValue(property, value);
+            if (data == null) {
+                continue;
+            }
+            if (delta) {
+                data = encodeExtParamDelta(property, sentExtParamsCache.get(entry.getKey()), value, data);
+            }
 
-                    if (os.size() + 2 + data.length > MAX_COMMAND_SIZE) {
-                        // no more space in command
-                        break;
-                    }
+            int entrySize = 1 + (delta ? 0 : 1) + data.length;
+            if (1 + entrySize > MAX_COMMAND_SIZE) {
+                Log.w(TAG, "Param too big to send: " + paramId);
+                extParamsToSend.remove(entry.getKey(), value);
+                continue;
+            }
 
-                    os.write(paramId);
-                    os.write(data.length);
-                    os.write(data, 0, data.length);
+            // first command with enough space, so small params fill the gaps after big ones
+            ByteArrayOutputStream os = null;
+            for (ByteArrayOutputStream command : commands) {
+                if (command.size() + entrySize <= MAX_COMMAND_SIZE) {
+                    os = command;
                     break;
+                }
+            }
+            if (os == null) {
+                os = new ByteArrayOutputStream(MAX_COMMAND_SIZE);
+                os.write(commandId);
+                commands.add(os);
             }
+
+            os.write(paramId);
+            if (!delta) {
+                os.write(data.length);
+            }
+            os.write(data, 0, data.length);
+
             sentExtParamsCache.put(entry.getKey(), value);
+            sentExtParamsTimes.put(entry.getKey(), now);
             extParamsToSend.remove(entry.getKey(), value);
         }
 
-        if (os.size() > 1) {
-            // at least one parameter was set
-            sendOsswCommand(os.toByteArray());
+        if (!commands.isEmpty()) {
+            lastExtParamsCommandTime = now;
+            final long flushStart = now;
+            final int flushCommands = commands.size();
+            final AtomicInteger pendingCommands = new AtomicInteger(flushCommands);
+            CommandResultHandler handler = new CommandResultHandler() {
+                @Override
+                public void handleResult(int status) {
+                    if (delta) {
+                        extParamsDeltaResultHandler.handleResult(status);
+                    }
+                    if (pendingCommands.decrementAndGet() == 0) {
+                        commandChannel.getLinkMetrics().recordExtParamsFlush(flushCommands, System.currentTimeMillis() - flushStart);
+                    }
+                }
+            };
+            for (ByteArrayOutputStream os : commands) {
+                sendOsswCommandAsync(CommandPriority.PARAMETERS, os.toByteArray(), handler);
+            }
+        }
+
+        if (nextUpdateDelay >= 0) {
+            scheduleExtParamUpdate(Math.max(nextUpdateDelay, lastExtParamsCommandTime + getExtParamsMinInterval() - now));
         }
 
         //  Log.i(TAG, "Write: " + value + ", result: " + status);
     }
 
+    private byte[] encodeExtParamValue(WatchExtensionProperty property, Object value) {
+        switch (property.getType()) {
+            case NUMBER:
+                Integer intValue = buildIntValue(value, property.getRange());
+                int fieldSize = calcExternalPropertySize(property.getType(), property.getRange());
+                byte[] data = new byte[fieldSize];
+                for (int i = 0; i < fieldSize; i++) {
+                    data[i] = (byte) (intValue >> (8 * (fieldSize - i - 1)));
+                }
+                return data;
+            case STRING:
+                String v = (String) value;
+                v = StringNormalizer.removeAccents(v);
+                return cutToBytes(v, property.getRange());
+        }
+        return null;
+    }
+
+    /**
+     * @param sentValue Value last sent to the watch or null.
+     * @param data      Fully encoded new value.
+     * @return The shorter of the full value and its delta against the sent value.
+     */
+    private byte[] encodeExtParamDelta(WatchExtensionProperty property, Object sentValue, Object value, byte[] data) {
+        byte[] full = ExtParamDeltaEncoder.encodeFull(data);
+        if (sentValue == null) {
+            return full;
+        }
+        byte[] patch;
+        switch (property.getType()) {
+            case NUMBER:
+                patch = ExtParamDeltaEncoder.encodeNumberDelta(buildIntValue(sentValue, property.getRange()), buildIntValue(value, property.getRange()));
+                break;
+            case STRING:
+                patch = ExtParamDeltaEncoder.encodeStringPatch(encodeExtParamValue(property, sentValue), data);
+                break;
+            default:
+                return full;
+        }
+        return patch.length < full.length ? patch : full;
+    }
+
+    /**
+     * Deltas are relative to the values the watch should have, after a lost update all params are sent in full.
+     */
+    private final CommandResultHandler extParamsDeltaResultHandler = new CommandResultHandler() {
+        @Override
+        public void handleResult(int status) {
+            if (status == 0) {
+                return;
+            }
+            if (!extParamsResyncScheduled.compareAndSet(false, true)) {
+                // deltas pipelined before the failure are covered by already scheduled resend
+                return;
+            }
+            Log.w(TAG, "Ext params update failed: " + status + ", resend all params");
+            extParamUploadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    extParamsResyncScheduled.set(false);
+                    sentExtParamsCache.clear();
+                    sentExtParamsTimes.clear();
+                    if (watchContext != null && watchContext.getExternalParameters() != null) {
+                        sendAllExternalParamsValues();
+                    }
+                }
+            });
+        }
+    };
+
     private byte[] cutToBytes(String s, int charLimit) {
         byte[] utf8 = s.getBytes();
         if (utf8.length <= charLimit) {
@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service;
+
+/**
+ * Receives the progress of a file upload, in percents of the transferred data.
+ */
+public interface UploadProgressHandler {
+    void handleProgress(int percent);
+}
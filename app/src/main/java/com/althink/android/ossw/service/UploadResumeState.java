@@ -0,0 +1,26 @@
+package com.althink.android.ossw.service;
+
+/**
+ * Progress of a file upload which may be continued after the connection was lost.
+ */
+public class UploadResumeState {
+
+    private final int contentHash;
+    private volatile int acknowledgedOffset;
+
+    public UploadResumeState(int contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public int getContentHash() {
+        return contentHash;
+    }
+
+    public int getAcknowledgedOffset() {
+        return acknowledgedOffset;
+    }
+
+    public void setAcknowledgedOffset(int acknowledgedOffset) {
+        this.acknowledgedOffset = acknowledgedOffset;
+    }
+}
@@ -9,10 +9,17 @@ public class WatchOperationContext {
 
     private List<WatchExtensionProperty> externalParameters;
     private List<WatchExtensionFunction> externalFunctions;
+    // indexes of external params used by each screen, null for watch sets compiled without it
+    private List<List<Integer>> screenParameters;
 
     public WatchOperationContext(List<WatchExtensionProperty> externalParameters, List<WatchExtensionFunction> externalFunctions) {
+        this(externalParameters, externalFunctions, null);
+    }
+
+    public WatchOperationContext(List<WatchExtensionProperty> externalParameters, List<WatchExtensionFunction> externalFunctions, List<List<Integer>> screenParameters) {
         this.externalParameters = externalParameters;
         this.externalFunctions = externalFunctions;
+        this.screenParameters = screenParameters;
     }
 
     public List<WatchExtensionProperty> getExternalParameters() {
@@ -23,4 +30,8 @@ public class WatchOperationContext {
         return externalFunctions;
     }
 
+    public List<List<Integer>> getScreenParameters() {
+        return screenParameters;
+    }
+
 }
@@ -0,0 +1,104 @@
+package com.althink.android.ossw.service;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps state of a file upload in which several data chunks may wait for acknowledgement.
+ * The watch acknowledges chunks cumulatively (number of the next expected chunk) and may request
+ * retransmission of a single chunk.
+ */
+public class WindowedUpload {
+
+    public static final int FINISHED = -1;
+    public static final int TIMEOUT = -2;
+    public static final int ABORTED = -3;
+
+    private final int chunkCount;
+    private final int windowSize;
+
+    // first chunk not acknowledged yet
+    private int base = 0;
+    // first chunk never sent
+    private int next = 0;
+    private boolean aborted = false;
+    private final LinkedList<Integer> retransmits = new LinkedList<>();
+
+    public WindowedUpload(int chunkCount, int windowSize) {
+        this.chunkCount = chunkCount;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Waits until there is a chunk which may be sent.
+     *
+     * @param timeout Max time in milliseconds to wait for acknowledgement when the window is full.
+     * @return Number of chunk to send, {@link #FINISHED} when all chunks were acknowledged,
+     * {@link #TIMEOUT} when nothing was acknowledged in given time or {@link #ABORTED}.
+     */
+    public synchronized int awaitNextChunk(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            if (aborted) {
+                return ABORTED;
+            }
+            if (base >= chunkCount) {
+                return FINISHED;
+            }
+            if (!retransmits.isEmpty()) {
+                return retransmits.poll();
+            }
+            if (next < chunkCount && next - base < windowSize) {
+                return next++;
+            }
+            long timeLeft = deadline - System.currentTimeMillis();
+            if (timeLeft <= 0) {
+                return TIMEOUT;
+            }
+            wait(timeLeft);
+        }
+    }
+
+    public synchronized void handleAck(int nextExpectedChunk) {
+        if (nextExpectedChunk <= base) {
+            return;
+        }
+        base = Math.min(nextExpectedChunk, next);
+        Iterator<Integer> i = retransmits.iterator();
+        while (i.hasNext()) {
+            if (i.next() < base) {
+                i.remove();
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized void handleNack(int chunkNo) {
+        if (chunkNo >= base && chunkNo < next && !retransmits.contains(chunkNo)) {
+            retransmits.add(chunkNo);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Schedules retransmission of the oldest not acknowledged chunk, used when the watch is silent.
+     */
+    public synchronized void retransmitOldest() {
+        if (base < next && !retransmits.contains(base)) {
+            retransmits.addFirst(base);
+        }
+    }
+
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    public synchronized int getAcknowledgedChunks() {
+        return base;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+}
@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service.ble;
+
+/**
+ * Connection parameters requested from the BLE stack, from the fastest to the most power efficient.
+ */
+public enum BleConnectionMode {
+    HIGH, BALANCED, LOW_POWER
+}
@@ -13,25 +13,29 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by krzysiek on 10/10/15.
  */
-public class BleDeviceService {
+public class BleDeviceService implements WatchTransport {
 
     private final static String TAG = BleDeviceService.class.getSimpleName();
 
@@ -43,7 +47,61 @@ public class BleDeviceService {
     public static final int STATE_CONNECTED = 3;
     public static final int STATE_AUTO_RECONNECT = 4;
 
-    private ExecutorService bleOperationsService = Executors.newSingleThreadExecutor();
+    // max number of BLE operations (mostly packet writes) waiting for the radio
+    public static final int DEFAULT_OPERATION_QUEUE_CAPACITY = 64;
+    // max number of packets handed over to the BLE stack without completion callback
+    public static final int DEFAULT_MAX_WRITES_IN_FLIGHT = 1;
+
+    // minimal ATT MTU, always supported
+    public static final int DEFAULT_MTU = 23;
+    // MTU requested after connection, the watch may accept a smaller one
+    public static final int PREFERRED_MTU = 158;
+    private static final int ATT_WRITE_HEADER_SIZE = 3;
+    // some stacks never report the result of the MTU request, connection continues with the default one
+    private static final int MTU_REQUEST_TIMEOUT = 2000;
+
+    // time after the last transfer when the connection is switched to the idle mode
+    public static final int DEFAULT_IDLE_TIMEOUT = 5000;
+
+    private static final int WRITE_RETRY_TIMEOUT = 100;
+    private static final int WRITE_MAX_RETRIES = 50;
+
+    // blocks the producer when the operation queue is full, so packets are not buffered without limit
+    private static final RejectedExecutionHandler WAIT_FOR_QUEUE_SPACE = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    private volatile ExecutorService bleOperationsService = newBleOperationsExecutor();
+
+    private volatile int maxWritesInFlight = DEFAULT_MAX_WRITES_IN_FLIGHT;
+    private final Semaphore writeWindow = new Semaphore(DEFAULT_MAX_WRITES_IN_FLIGHT);
+    // permits taken from the write window, completion callbacks arriving after a reset don't release more
+    private int writesInFlight = 0;
+    // command which packet couldn't be written, its remaining packets are dropped, accessed by the BLE worker only
+    private PacketWriteFailureHandler failedPacketOwner;
+
+    // enough for all queued packets and the ones being written
+    private final PacketPool packetPool = new PacketPool(DEFAULT_OPERATION_QUEUE_CAPACITY + 2);
+    // packet writes don't go through the executor queue, its tasks and nodes would be allocated for every packet
+    private final PacketWriteQueue<BluetoothGattCharacteristic> packetWriteQueue = new PacketWriteQueue<>(DEFAULT_OPERATION_QUEUE_CAPACITY, packetPool);
+    // packet being written, accessed by the BLE worker only
+    private final PacketWriteQueue.Entry<BluetoothGattCharacteristic> packetWrite = new PacketWriteQueue.Entry<>();
+    private final Runnable packetWriter = new Runnable() {
+        @Override
+        public void run() {
+            writeQueuedPackets();
+        }
+    };
 
     private Context context;
     private BluetoothGatt bluetoothGatt;
@@ -52,6 +110,23 @@ public class BleDeviceService {
     private BluetoothAdapter bluetoothAdapter;
 
     private int connectionState = STATE_DISCONNECTED;
+    private volatile int mtu = DEFAULT_MTU;
+    // set while waiting for the result of our own MTU request, guarded by this
+    private boolean mtuRequestPending = false;
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new ConcurrentHashMap<>();
+
+    // mode requested from the stack, null when not known
+    private BleConnectionMode connectionMode;
+    private BleConnectionMode transferConnectionMode = BleConnectionMode.HIGH;
+    private BleConnectionMode idleConnectionMode = BleConnectionMode.BALANCED;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private int activeTransfers = 0;
+    private boolean idleModeSwitchPending = false;
+
+    // throughput statistics per connection mode, collected only while transfers are active
+    private final long[] transferredBytes = new long[BleConnectionMode.values().length];
+    private final long[] transferTimes = new long[BleConnectionMode.values().length];
+    private long transferStatsSince;
 
     private BleConnectionStatusHandler connStatusHandler;
     private CharacteristicChangeHandler characteristicChangeHandler;
@@ -120,6 +195,7 @@ public class BleDeviceService {
             bluetoothGatt.close();
             bluetoothGatt = null;
         }
+        characteristics.clear();
 
         final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
         if (device == null) {
@@ -138,6 +214,7 @@ public class BleDeviceService {
         return true;
     }
 
+    @Override
     public boolean isConnected() {
         return bluetoothGatt != null && connectionState == STATE_CONNECTED;
     }
@@ -164,6 +241,10 @@ public class BleDeviceService {
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 //Log.i(TAG, "Disconnected from GATT server.");
+                finishMtuRequest();
+                mtu = DEFAULT_MTU;
+                characteristics.clear();
+                resetConnectionMode();
                 cleanupBleCommands();
 
                 if (autoReconnect) {
@@ -200,6 +281,12 @@ public class BleDeviceService {
             super.onCharacteristicWrite(gatt, characteristic, status);
 
             //Log.i(TAG, "onCharacteristicWrite: " + characteristic.getUuid() + ", " + Arrays.toString(characteristic.getValue()));
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "Characteristic write failed: " + status);
+            }
+            // for WRITE_TYPE_NO_RESPONSE the stack reports completion as soon as the packet is buffered,
+            // so the next packet may be written within the same connection interval
+            releaseWrites(1);
             synchronized (bleOperationLock) {
                 bleOperationLock.notify();
             }
@@ -229,12 +316,219 @@ public class BleDeviceService {
             Log.w(TAG, "onServicesDiscovered received: " + status);
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 //Log.w(TAG, "onServicesDiscovered received: " + status);
-                connectionState = STATE_CONNECTED;
-                invokeConnectionStatusHandler(BleConnectionStatus.CONNECTED);
+                if (!requestMtu(gatt)) {
+                    handleConnected();
+                }
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+
+            Log.i(TAG, "onMtuChanged: " + mtu + ", " + status);
+            if (status == BluetoothGatt.GATT_SUCCESS && mtu >= DEFAULT_MTU) {
+                BleDeviceService.this.mtu = mtu;
+            }
+            // the callback is also invoked when the watch starts the exchange on its own
+            if (finishMtuRequest()) {
+                handleConnected();
             }
         }
     };
 
+    private final Runnable mtuRequestTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (finishMtuRequest()) {
+                Log.w(TAG, "MTU request timeout, using MTU: " + mtu);
+                handleConnected();
+            }
+        }
+    };
+
+    private boolean requestMtu(BluetoothGatt gatt) {
+        // MTU exchange is supported since Lollipop, older systems always use the default one
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        synchronized (this) {
+            mtuRequestPending = true;
+        }
+        if (!gatt.requestMtu(PREFERRED_MTU)) {
+            finishMtuRequest();
+            return false;
+        }
+        handler.postDelayed(mtuRequestTimeout, MTU_REQUEST_TIMEOUT);
+        return true;
+    }
+
+    /**
+     * @return true if the MTU request was pending, only the first of the result and the timeout continues the connection.
+     */
+    private synchronized boolean finishMtuRequest() {
+        if (!mtuRequestPending) {
+            return false;
+        }
+        mtuRequestPending = false;
+        handler.removeCallbacks(mtuRequestTimeout);
+        return true;
+    }
+
+    private void handleConnected() {
+        connectionState = STATE_CONNECTED;
+        synchronized (this) {
+            // stack default, there is no way to read the current one
+            connectionMode = BleConnectionMode.BALANCED;
+            if (activeTransfers > 0) {
+                transferStatsSince = System.currentTimeMillis();
+                updateConnectionMode();
+            } else {
+                // leave time for the initial data exchange
+                idleModeSwitchPending = true;
+                handler.postDelayed(switchToIdleMode, idleTimeout);
+            }
+        }
+        invokeConnectionStatusHandler(BleConnectionStatus.CONNECTED);
+    }
+
+    /**
+     * Returns the max number of bytes that can be sent in a single characteristic write,
+     * based on the MTU negotiated with the connected device.
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return mtu - ATT_WRITE_HEADER_SIZE;
+    }
+
+    /**
+     * Marks the beginning of a data transfer, the connection is switched to the transfer mode
+     * until all transfers are finished and the idle timeout elapses.
+     */
+    @Override
+    public synchronized void beginTransfer() {
+        if (activeTransfers++ == 0) {
+            handler.removeCallbacks(switchToIdleMode);
+            idleModeSwitchPending = false;
+            transferStatsSince = System.currentTimeMillis();
+            updateConnectionMode();
+        }
+    }
+
+    @Override
+    public synchronized void endTransfer() {
+        if (activeTransfers == 0) {
+            return;
+        }
+        if (--activeTransfers == 0) {
+            updateTransferStats();
+            idleModeSwitchPending = true;
+            handler.postDelayed(switchToIdleMode, idleTimeout);
+        }
+    }
+
+    private final Runnable switchToIdleMode = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BleDeviceService.this) {
+                if (activeTransfers == 0 && idleModeSwitchPending) {
+                    idleModeSwitchPending = false;
+                    updateConnectionMode();
+                }
+            }
+        }
+    };
+
+    public synchronized void setTransferConnectionMode(BleConnectionMode mode) {
+        this.transferConnectionMode = mode;
+        updateConnectionMode();
+    }
+
+    public synchronized void setIdleConnectionMode(BleConnectionMode mode) {
+        this.idleConnectionMode = mode;
+        if (activeTransfers == 0 && !idleModeSwitchPending) {
+            updateConnectionMode();
+        }
+    }
+
+    /**
+     * @param idleTimeout Time in milliseconds after the last transfer when the connection is switched to the idle mode.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized BleConnectionMode getConnectionMode() {
+        return connectionMode;
+    }
+
+    private void updateConnectionMode() {
+        BleConnectionMode mode = activeTransfers > 0 ? transferConnectionMode : idleConnectionMode;
+        if (mode == connectionMode || connectionState != STATE_CONNECTED) {
+            return;
+        }
+        if (activeTransfers > 0) {
+            updateTransferStats();
+        }
+        if (requestConnectionMode(mode)) {
+            Log.i(TAG, "Connection mode: " + mode);
+            connectionMode = mode;
+        }
+    }
+
+    private boolean requestConnectionMode(BleConnectionMode mode) {
+        // connection priority can be changed since Lollipop
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || bluetoothGatt == null) {
+            return false;
+        }
+        switch (mode) {
+            case HIGH:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            case LOW_POWER:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+            default:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        }
+    }
+
+    private synchronized void resetConnectionMode() {
+        handler.removeCallbacks(switchToIdleMode);
+        idleModeSwitchPending = false;
+        if (activeTransfers > 0) {
+            updateTransferStats();
+        }
+        connectionMode = null;
+    }
+
+    private void updateTransferStats() {
+        long now = System.currentTimeMillis();
+        if (connectionMode != null) {
+            transferTimes[connectionMode.ordinal()] += now - transferStatsSince;
+        }
+        transferStatsSince = now;
+    }
+
+    private synchronized void countTransferredBytes(int bytes) {
+        if (activeTransfers > 0 && connectionMode != null) {
+            transferredBytes[connectionMode.ordinal()] += bytes;
+        }
+    }
+
+    /**
+     * @return Average number of bytes per second written during transfers in given connection mode.
+     */
+    public synchronized long getTransferThroughput(BleConnectionMode mode) {
+        long time = transferTimes[mode.ordinal()];
+        if (activeTransfers > 0 && mode == connectionMode) {
+            time += System.currentTimeMillis() - transferStatsSince;
+        }
+        return time > 0 ? transferredBytes[mode.ordinal()] * 1000 / time : 0;
+    }
+
+    public synchronized long getTransferredBytes(BleConnectionMode mode) {
+        return transferredBytes[mode.ordinal()];
+    }
+
     private void startAutoReconnectAttempt() {
 
         stopAutoReconnectAttempt();
@@ -293,7 +587,73 @@ public class BleDeviceService {
         synchronized (bleOperationLock) {
             bleOperationLock.notifyAll();
         }
-        bleOperationsService = Executors.newSingleThreadExecutor();
+        resetWriteWindow();
+        // replaced before the queue is cleared, so the next packet starts a writer on the new executor
+        bleOperationsService = newBleOperationsExecutor();
+        packetWriteQueue.clear();
+    }
+
+    private static ExecutorService newBleOperationsExecutor() {
+        return new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(DEFAULT_OPERATION_QUEUE_CAPACITY), WAIT_FOR_QUEUE_SPACE);
+    }
+
+    /**
+     * Sets how many characteristic writes may be passed to the BLE stack before their completion
+     * callbacks arrive. Values above 1 only make sense for characteristics using
+     * {@code BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE}.
+     *
+     * @param maxWritesInFlight Size of the write window, at least 1.
+     */
+    public void setMaxWritesInFlight(final int maxWritesInFlight) {
+        if (maxWritesInFlight < 1) {
+            throw new IllegalArgumentException("Invalid write window size: " + maxWritesInFlight);
+        }
+        bleOperationsService.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // wait for all pending writes before the window is resized
+                acquireAllWrites();
+                BleDeviceService.this.maxWritesInFlight = maxWritesInFlight;
+                resetWriteWindow();
+                return null;
+            }
+        });
+    }
+
+    private void acquireWrites(int count) throws InterruptedException {
+        writeWindow.acquire(count);
+        synchronized (writeWindow) {
+            writesInFlight += count;
+        }
+    }
+
+    private void releaseWrites(int count) {
+        synchronized (writeWindow) {
+            count = Math.min(count, writesInFlight);
+            writesInFlight -= count;
+            writeWindow.release(count);
+        }
+    }
+
+    private void acquireAllWrites() throws InterruptedException {
+        acquireWrites(maxWritesInFlight);
+    }
+
+    private void releaseAllWrites() {
+        releaseWrites(maxWritesInFlight);
+    }
+
+    /**
+     * Makes all permits of the window available, e.g. after the writes in flight were lost with the connection.
+     */
+    private void resetWriteWindow() {
+        synchronized (writeWindow) {
+            writesInFlight = 0;
+            writeWindow.drainPermits();
+            writeWindow.release(maxWritesInFlight);
+        }
     }
 
     /**
@@ -368,9 +728,14 @@ public class BleDeviceService {
                     //Log.w(TAG, "BluetoothAdapter not initialized");
                     return null;
                 }
-                synchronized (bleOperationLock) {
-                    bluetoothGatt.readCharacteristic(characteristic);
-                    bleOperationLock.wait();
+                acquireAllWrites();
+                try {
+                    synchronized (bleOperationLock) {
+                        bluetoothGatt.readCharacteristic(characteristic);
+                        bleOperationLock.wait();
+                    }
+                } finally {
+                    releaseAllWrites();
                 }
                 if (handler != null) {
                     handler.handleValue(characteristic.getValue());
@@ -380,24 +745,119 @@ public class BleDeviceService {
         });
     }
 
-    public void writeCharacteristic(final BluetoothGattCharacteristic characteristic, final byte[] data) {
-        bleOperationsService.submit(new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
+    public void writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] data) {
+        writeCharacteristic(characteristic, data, false, null);
+    }
 
-                if (bluetoothAdapter == null || bluetoothGatt == null) {
-                    //Log.w(TAG, "BluetoothAdapter not initialized");
-                    return null;
-                }
-                synchronized (bleOperationLock) {
-                    //Log.i(TAG, "Write characteristic: " + Arrays.toString(data));
-                    characteristic.setValue(data);
-                    bluetoothGatt.writeCharacteristic(characteristic);
-                    bleOperationLock.wait();
+    @Override
+    public void writeCharacteristic(UUID characteristicUuid, byte[] data) {
+        BluetoothGattCharacteristic characteristic = findCharacteristic(characteristicUuid);
+        if (characteristic != null) {
+            writeCharacteristic(characteristic, data, false, null);
+        }
+    }
+
+    @Override
+    public byte[] obtainPacket(int size) {
+        return packetPool.obtain(size);
+    }
+
+    /**
+     * Writes the packet obtained with {@link #obtainPacket}, the packet is reused after it's written,
+     * so it must not be modified by the caller anymore.
+     */
+    @Override
+    public void writePacket(UUID characteristicUuid, byte[] packet, PacketWriteFailureHandler failureHandler) {
+        BluetoothGattCharacteristic characteristic = findCharacteristic(characteristicUuid);
+        if (characteristic != null) {
+            writeCharacteristic(characteristic, packet, true, failureHandler);
+        } else if (failureHandler != null) {
+            failureHandler.handleWriteFailure();
+        }
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(UUID characteristicUuid) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicUuid);
+        if (characteristic != null || bluetoothGatt == null) {
+            return characteristic;
+        }
+        for (BluetoothGattService service : bluetoothGatt.getServices()) {
+            characteristic = service.getCharacteristic(characteristicUuid);
+            if (characteristic != null) {
+                characteristics.put(characteristicUuid, characteristic);
+                return characteristic;
+            }
+        }
+        Log.w(TAG, "Characteristic not found: " + characteristicUuid);
+        return null;
+    }
+
+    public PacketPool getPacketPool() {
+        return packetPool;
+    }
+
+    /**
+     * @param failureHandler Owner of the packet notified when it can't be written, null for standalone writes.
+     */
+    private void writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] data, boolean recycle, PacketWriteFailureHandler failureHandler) {
+        try {
+            if (packetWriteQueue.put(characteristic, data, recycle, failureHandler)) {
+                bleOperationsService.execute(packetWriter);
+            }
+        } catch (InterruptedException e) {
+            if (recycle) {
+                packetPool.recycle(data);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeQueuedPackets() {
+        // interrupted when the commands are cleaned up, the queue is cleared then
+        while (!Thread.currentThread().isInterrupted() && packetWriteQueue.poll(packetWrite)) {
+            try {
+                writeQueuedPacket(packetWrite.getCharacteristic(), packetWrite.getPacket(), packetWrite.getFailureHandler());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                packetWriteQueue.finish(packetWrite);
+            }
+        }
+    }
+
+    private void writeQueuedPacket(BluetoothGattCharacteristic characteristic, byte[] data, PacketWriteFailureHandler failureHandler) throws InterruptedException {
+        if (bluetoothAdapter == null || bluetoothGatt == null) {
+            //Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        if (failureHandler != null && failureHandler == failedPacketOwner) {
+            // the command already has a hole, the watch discards it when the last packet is missing
+            return;
+        }
+        // released in onCharacteristicWrite
+        acquireWrites(1);
+        boolean written = true;
+        synchronized (bleOperationLock) {
+            //Log.i(TAG, "Write characteristic: " + Arrays.toString(data));
+            characteristic.setValue(data);
+            int retries = 0;
+            while (!bluetoothGatt.writeCharacteristic(characteristic)) {
+                // stack is still busy with previous packet, try again after next completion
+                if (++retries > WRITE_MAX_RETRIES) {
+                    Log.w(TAG, "Characteristic write rejected, drop packet");
+                    releaseWrites(1);
+                    written = false;
+                    break;
                 }
-                return null;
+                bleOperationLock.wait(WRITE_RETRY_TIMEOUT);
             }
-        });
+        }
+        if (written) {
+            countTransferredBytes(data.length);
+        } else if (failureHandler != null) {
+            failedPacketOwner = failureHandler;
+            failureHandler.handleWriteFailure();
+        }
     }
 
     public void writeDescriptor(final BluetoothGattDescriptor descriptor) {
@@ -409,9 +869,14 @@ public class BleDeviceService {
                     //Log.w(TAG, "BluetoothAdapter not initialized");
                     return null;
                 }
-                synchronized (bleOperationLock) {
-                    bluetoothGatt.writeDescriptor(descriptor);
-                    bleOperationLock.wait();
+                acquireAllWrites();
+                try {
+                    synchronized (bleOperationLock) {
+                        bluetoothGatt.writeDescriptor(descriptor);
+                        bleOperationLock.wait();
+                    }
+                } finally {
+                    releaseAllWrites();
                 }
                 return null;
             }
@@ -0,0 +1,68 @@
+package com.althink.android.ossw.service.ble;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reuses packet buffers, so sending long commands doesn't create a new array for every BLE packet.
+ * A packet may be recycled as soon as the BLE stack accepted its write, the stack copies the value.
+ */
+public class PacketPool {
+
+    // max size of characteristic value
+    public static final int MAX_PACKET_SIZE = 512;
+
+    private final int maxPooledPackets;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<byte[]>[] packets = new ArrayDeque[MAX_PACKET_SIZE + 1];
+    private int pooledPackets = 0;
+
+    private long allocatedPackets = 0;
+    private long allocatedBytes = 0;
+    private long reusedPackets = 0;
+
+    public PacketPool(int maxPooledPackets) {
+        this.maxPooledPackets = maxPooledPackets;
+    }
+
+    /**
+     * @return Packet of exactly given size, its content is undefined.
+     */
+    public synchronized byte[] obtain(int size) {
+        if (size <= MAX_PACKET_SIZE) {
+            ArrayDeque<byte[]> free = packets[size];
+            if (free != null && !free.isEmpty()) {
+                pooledPackets--;
+                reusedPackets++;
+                return free.poll();
+            }
+        }
+        allocatedPackets++;
+        allocatedBytes += size;
+        return new byte[size];
+    }
+
+    public synchronized void recycle(byte[] packet) {
+        if (packet.length > MAX_PACKET_SIZE || pooledPackets >= maxPooledPackets) {
+            return;
+        }
+        ArrayDeque<byte[]> free = packets[packet.length];
+        if (free == null) {
+            free = new ArrayDeque<>();
+            packets[packet.length] = free;
+        }
+        free.add(packet);
+        pooledPackets++;
+    }
+
+    public synchronized long getAllocatedPackets() {
+        return allocatedPackets;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getReusedPackets() {
+        return reusedPackets;
+    }
+}
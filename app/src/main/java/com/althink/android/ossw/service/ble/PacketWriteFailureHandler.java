@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service.ble;
+
+/**
+ * Notified when a packet of a command couldn't be written, the remaining packets of the command are dropped.
+ */
+public interface PacketWriteFailureHandler {
+    void handleWriteFailure();
+}
@@ -0,0 +1,119 @@
+package com.althink.android.ossw.service.ble;
+
+/**
+ * Bounded ring of packet writes drained by a single writer. Entries are allocated once, so queueing
+ * a packet doesn't create any object, the producer is blocked while the ring is full.
+ *
+ * @param <T> Characteristic the packets are written to.
+ */
+public class PacketWriteQueue<T> {
+
+    /**
+     * Packet write, entries of the ring are reused and the writer copies each write into its own entry.
+     */
+    public static class Entry<T> {
+        private T characteristic;
+        private byte[] packet;
+        private boolean recycle;
+        private PacketWriteFailureHandler failureHandler;
+
+        public T getCharacteristic() {
+            return characteristic;
+        }
+
+        public byte[] getPacket() {
+            return packet;
+        }
+
+        public PacketWriteFailureHandler getFailureHandler() {
+            return failureHandler;
+        }
+
+        private void set(T characteristic, byte[] packet, boolean recycle, PacketWriteFailureHandler failureHandler) {
+            this.characteristic = characteristic;
+            this.packet = packet;
+            this.recycle = recycle;
+            this.failureHandler = failureHandler;
+        }
+    }
+
+    private final PacketPool packetPool;
+    private final Entry<T>[] entries;
+    private int head = 0;
+    private int size = 0;
+    // set from the write which found the writer idle until the writer finds the ring empty
+    private boolean writerActive = false;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PacketWriteQueue(int capacity, PacketPool packetPool) {
+        this.packetPool = packetPool;
+        this.entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry<>();
+        }
+    }
+
+    /**
+     * @param recycle        True if the packet goes back to the pool once it's written or dropped.
+     * @param failureHandler Owner of the packet notified when it can't be written, null for standalone writes.
+     * @return True if the writer is idle and has to be started.
+     */
+    public synchronized boolean put(T characteristic, byte[] packet, boolean recycle, PacketWriteFailureHandler failureHandler) throws InterruptedException {
+        while (size == entries.length) {
+            wait();
+        }
+        entries[(head + size) % entries.length].set(characteristic, packet, recycle, failureHandler);
+        size++;
+        if (writerActive) {
+            return false;
+        }
+        writerActive = true;
+        return true;
+    }
+
+    /**
+     * Moves the oldest write into the entry of the writer, which has to {@link #finish} it.
+     *
+     * @return False if the ring is empty, the writer is started again by the next write.
+     */
+    public synchronized boolean poll(Entry<T> write) {
+        if (size == 0) {
+            writerActive = false;
+            return false;
+        }
+        Entry<T> first = entries[head];
+        write.set(first.characteristic, first.packet, first.recycle, first.failureHandler);
+        first.set(null, null, false, null);
+        head = (head + 1) % entries.length;
+        size--;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Recycles the packet of the polled write, whether it was written or not.
+     */
+    public void finish(Entry<T> write) {
+        if (write.recycle) {
+            packetPool.recycle(write.packet);
+        }
+        write.set(null, null, false, null);
+    }
+
+    /**
+     * Drops all queued writes and recycles their packets, e.g. when the connection is lost.
+     */
+    public synchronized void clear() {
+        while (size > 0) {
+            finish(entries[head]);
+            head = (head + 1) % entries.length;
+            size--;
+        }
+        writerActive = false;
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,8 @@
+package com.althink.android.ossw.service.ble;
+
+/**
+ * Handles data sent by the watch.
+ */
+public interface WatchDataHandler {
+    void handleWatchData(byte[] value);
+}
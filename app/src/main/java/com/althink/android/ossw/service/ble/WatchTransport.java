@@ -0,0 +1,38 @@
+package com.althink.android.ossw.service.ble;
+
+import java.util.UUID;
+
+/**
+ * Data link to the watch used for sending commands, implemented by {@link BleDeviceService}
+ * and by the fake watch device of the unit tests, which allows running transfers without a watch.
+ */
+public interface WatchTransport {
+
+    boolean isConnected();
+
+    /**
+     * @return Max number of bytes in a single write.
+     */
+    int getMaxWriteSize();
+
+    /**
+     * @return Buffer for a packet written with {@link #writePacket}.
+     */
+    byte[] obtainPacket(int size);
+
+    /**
+     * Writes the packet obtained with {@link #obtainPacket}, the packet must not be modified by the caller anymore.
+     *
+     * @param failureHandler Same instance for all packets of a command, notified if any of them couldn't be written.
+     */
+    void writePacket(UUID characteristicUuid, byte[] packet, PacketWriteFailureHandler failureHandler);
+
+    void writeCharacteristic(UUID characteristicUuid, byte[] data);
+
+    /**
+     * Marks the beginning of a data transfer, each call must be followed by {@link #endTransfer}.
+     */
+    void beginTransfer();
+
+    void endTransfer();
+}
@@ -0,0 +1,19 @@
+package com.althink.android.ossw.utils;
+
+/**
+ * CRC-16-CCITT (polynomial 0x1021, initial value 0xFFFF), the same as used by the watch firmware.
+ */
+public class Crc16 {
+
+    public static int compute(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc >> 8) | (crc << 8)) & 0xFFFF;
+            crc ^= data[i] & 0xFF;
+            crc ^= (crc & 0xFF) >> 4;
+            crc ^= (crc << 12) & 0xFFFF;
+            crc ^= ((crc & 0xFF) << 5) & 0xFFFF;
+        }
+        return crc;
+    }
+}
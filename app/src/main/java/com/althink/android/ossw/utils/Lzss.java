@@ -0,0 +1,117 @@
+package com.althink.android.ossw.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * LZSS codec with a small window, so the data can be decompressed by the watch while it is streamed.
+ * <p/>
+ * Compressed data is a sequence of groups, each one starts with a flags byte describing up to 8 items
+ * (least significant bit first). Bit set means a literal byte, bit cleared means a 2 byte match:
+ * 10 bits of (distance - 1) followed by 6 bits of (length - 3).
+ */
+public class Lzss {
+
+    public static final int WINDOW_SIZE = 1024;
+    public static final int MIN_MATCH = 3;
+    public static final int MAX_MATCH = MIN_MATCH + 63;
+
+    private static final int HASH_SIZE = 4096;
+    private static final int MAX_CHAIN_LENGTH = 64;
+
+    public static byte[] compress(byte[] data) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(data.length / 2);
+
+        int[] head = new int[HASH_SIZE];
+        Arrays.fill(head, -1);
+        int[] prev = new int[data.length];
+
+        byte[] group = new byte[1 + 8 * 2];
+        int groupSize = 1;
+        int flags = 0;
+        int items = 0;
+
+        int pos = 0;
+        while (pos < data.length) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            if (pos + MIN_MATCH <= data.length) {
+                int maxLength = Math.min(MAX_MATCH, data.length - pos);
+                int candidate = head[hash(data, pos)];
+                int chain = 0;
+                while (candidate >= 0 && pos - candidate <= WINDOW_SIZE && chain++ < MAX_CHAIN_LENGTH) {
+                    int length = 0;
+                    while (length < maxLength && data[candidate + length] == data[pos + length]) {
+                        length++;
+                    }
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = pos - candidate;
+                        if (length == maxLength) {
+                            break;
+                        }
+                    }
+                    candidate = prev[candidate];
+                }
+            }
+
+            int advance;
+            if (bestLength >= MIN_MATCH) {
+                group[groupSize++] = (byte) ((bestDistance - 1) >> 2);
+                group[groupSize++] = (byte) (((bestDistance - 1) & 0x3) << 6 | (bestLength - MIN_MATCH));
+                advance = bestLength;
+            } else {
+                flags |= 1 << items;
+                group[groupSize++] = data[pos];
+                advance = 1;
+            }
+
+            for (int i = 0; i < advance; i++, pos++) {
+                if (pos + MIN_MATCH <= data.length) {
+                    int h = hash(data, pos);
+                    prev[pos] = head[h];
+                    head[h] = pos;
+                }
+            }
+
+            if (++items == 8) {
+                group[0] = (byte) flags;
+                os.write(group, 0, groupSize);
+                groupSize = 1;
+                flags = 0;
+                items = 0;
+            }
+        }
+        if (items > 0) {
+            group[0] = (byte) flags;
+            os.write(group, 0, groupSize);
+        }
+        return os.toByteArray();
+    }
+
+    public static byte[] decompress(byte[] data, int size) {
+        byte[] result = new byte[size];
+        int out = 0;
+        int in = 0;
+        while (in < data.length && out < size) {
+            int flags = data[in++] & 0xFF;
+            for (int item = 0; item < 8 && in < data.length && out < size; item++) {
+                if ((flags & (1 << item)) != 0) {
+                    result[out++] = data[in++];
+                } else {
+                    int distance = ((data[in] & 0xFF) << 2 | (data[in + 1] & 0xFF) >> 6) + 1;
+                    int length = (data[in + 1] & 0x3F) + MIN_MATCH;
+                    in += 2;
+                    for (int i = 0; i < length; i++, out++) {
+                        result[out] = result[out - distance];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 4 ^ (data[pos + 1] & 0xFF) << 2 ^ (data[pos + 2] & 0xFF)) & (HASH_SIZE - 1);
+    }
+}
@@ -170,6 +170,33 @@ public class WatchConstants {
     public static final int OSSW_RX_COMMAND_COMMAND_ACK = 0x40;
     public static final int OSSW_RX_COMMAND_COMMAND_ERROR = 0x41;
     public static final int OSSW_RX_COMMAND_UPLOAD_NOTIFICATION_PERMISSION = 0x23;
+    public static final int OSSW_RX_COMMAND_CAPABILITIES = 0x13;
+    public static final int OSSW_RX_COMMAND_SET_SCREEN = 0x14;
+    public static final int OSSW_RX_COMMAND_UPLOAD_CHUNK_ACK = 0x24;
+    public static final int OSSW_RX_COMMAND_UPLOAD_CHUNK_NACK = 0x25;
+
+    public static final int OSSW_TX_COMMAND_GET_CAPABILITIES = 0x02;
+    public static final int OSSW_TX_COMMAND_INIT_WINDOWED_UPLOAD = 0x23;
+    public static final int OSSW_TX_COMMAND_WINDOWED_UPLOAD_CHUNK = 0x24;
+    public static final int OSSW_TX_COMMAND_INIT_RESUMABLE_UPLOAD = 0x25;
+    public static final int OSSW_TX_COMMAND_RESUMABLE_UPLOAD_CHUNK = 0x26;
+    public static final int OSSW_TX_COMMAND_INIT_PATCH_UPLOAD = 0x27;
+    public static final int OSSW_TX_COMMAND_SET_UPLOAD_ENCODING = 0x28;
+    public static final int OSSW_TX_COMMAND_BATCH = 0x29;
+    public static final int OSSW_TX_COMMAND_SET_EXT_PARAMS = 0x30;
+    public static final int OSSW_TX_COMMAND_SET_EXT_PARAMS_DELTA = 0x31;
+
+    public static final int FW_CAPABILITY_WINDOWED_UPLOAD = 0x01;
+    public static final int FW_CAPABILITY_RESUMABLE_UPLOAD = 0x02;
+    public static final int FW_CAPABILITY_PATCH_UPLOAD = 0x04;
+    public static final int FW_CAPABILITY_COMPRESSED_UPLOAD = 0x08;
+    public static final int FW_CAPABILITY_BATCH = 0x10;
+    public static final int FW_CAPABILITY_EXT_PARAMS_DELTA = 0x20;
+    public static final int FW_CAPABILITY_COMMAND_SEQUENCE = 0x40;
+
+    public static final int UPLOAD_ENCODING_LZSS = 1;
+
+    public static final int COMMAND_ACK_CHUNK_CRC_ERROR = 0x10;
 
 
     public static final int FONT_SMALL_REGULAR = 1;
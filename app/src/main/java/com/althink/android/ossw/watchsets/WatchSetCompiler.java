@@ -5,8 +5,8 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.util.Base64;
 
+import com.althink.android.ossw.plugins.PluginCatalog;
 import com.althink.android.ossw.plugins.PluginDefinition;
-import com.althink.android.ossw.plugins.PluginManager;
 import com.althink.android.ossw.service.WatchExtensionFunction;
 import com.althink.android.ossw.service.WatchExtensionProperty;
 import com.althink.android.ossw.service.WatchOperationContext;
@@ -21,6 +21,7 @@ import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -44,6 +45,11 @@ public class WatchSetCompiler {
 
     private List<WatchExtensionFunction> extensionFunctions = new LinkedList<>();
 
+    // external params referenced by each screen
+    private List<List<Integer>> screenParameters = new ArrayList<>();
+
+    private int currentScreen = -1;
+
     private Map<String, PluginDefinition> plugins;
 
     private Context context;
@@ -55,7 +61,7 @@ public class WatchSetCompiler {
     public CompiledWatchSet compile(String watchSetSource, Integer extWatchSetId) {
 
         plugins = new HashMap<>();
-        List<PluginDefinition> pluginList = new PluginManager(context).findPlugins();
+        List<PluginDefinition> pluginList = PluginCatalog.getInstance(context).getPlugins();
         for (PluginDefinition plugin : pluginList) {
             plugins.put(plugin.getPluginId(), plugin);
         }
@@ -134,7 +140,7 @@ public class WatchSetCompiler {
             os.write(WatchConstants.WATCH_SET_END_OF_DATA);
 
             watchset.setName(watchsetName);
-            watchset.setWatchContext(new WatchOperationContext(extensionParameters, extensionFunctions));
+            watchset.setWatchContext(new WatchOperationContext(extensionParameters, extensionFunctions, screenParameters));
             watchset.setWatchData(os.toByteArray());
 
             //Log.i(TAG, "size: " + watchset.getWatchData().length + ", data: " + Arrays.toString(watchset.getWatchData()));
@@ -213,6 +219,7 @@ public class WatchSetCompiler {
 
         screenIdToNumber.clear();
         extensionParameters.clear();
+        screenParameters.clear();
         extensionFunctions.clear();
 
         // in first round parse only screen ids
@@ -232,7 +239,10 @@ public class WatchSetCompiler {
         for (int scrNo = 0; scrNo < screens.length(); scrNo++) {
             JSONObject screen = screens.getJSONObject(scrNo);
 
+            currentScreen = scrNo;
+            screenParameters.add(new ArrayList<Integer>());
             byte[] screenData = parseScreen(screen);
+            currentScreen = -1;
             screensData.add(screenData);
 
             // write screen start address
@@ -1279,6 +1289,12 @@ public class WatchSetCompiler {
         }
     }
 
+    private void addScreenParameter(int paramIdx) {
+        if (currentScreen >= 0 && !screenParameters.get(currentScreen).contains(paramIdx)) {
+            screenParameters.get(currentScreen).add(paramIdx);
+        }
+    }
+
     private int addExtensionProperty(WatchExtensionProperty property) {
         if (plugins.get(property.getPluginId()) == null) {
             throw new KnownParseError("Plugin is not available: " + property.getPluginId());
@@ -1287,8 +1303,11 @@ public class WatchSetCompiler {
         int paramIdx = extensionParameters.indexOf(property);
         if (paramIdx < 0) {
             extensionParameters.add(property);
-            return extensionParameters.size() - 1;
+            paramIdx = extensionParameters.size() - 1;
+            addScreenParameter(paramIdx);
+            return paramIdx;
         } else {
+            addScreenParameter(paramIdx);
             WatchExtensionProperty oldProperty = extensionParameters.get(paramIdx);
             if (!oldProperty.getType().equals(property.getType())) {
                 throw new KnownParseError("Property " + property.getPropertyId() + " is defined multiple times with different type");
@@ -0,0 +1,238 @@
+package com.althink.android.ossw.watchsets;
+
+import com.althink.android.ossw.watch.WatchConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Builds a patch which transforms a previously uploaded watch set binary into a new one.
+ * <p/>
+ * Both binaries are split into regions (header, screens table, single screens, external properties,
+ * resources table, single resources). Regions present in the old binary are copied by the watch,
+ * only the remaining ones are sent.
+ * <p/>
+ * Patch format: [old data CRC32 (4)][new data size (3)][new data CRC32 (4)] followed by operations:
+ * COPY [0x01][old offset (3)][length (3)], INSERT [0x02][length (3)][data] and END [0xFF].
+ */
+public class WatchSetPatchBuilder {
+
+    public static final int PATCH_OPERATION_COPY = 1;
+    public static final int PATCH_OPERATION_INSERT = 2;
+    public static final int PATCH_OPERATION_END = 0xFF;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int COPY_OPERATION_SIZE = 7;
+
+    /**
+     * @return Patch data or null if any of the binaries has unknown format.
+     */
+    public static byte[] buildPatch(byte[] oldData, byte[] newData) {
+        List<int[]> oldRegions = splitIntoRegions(oldData);
+        List<int[]> newRegions = splitIntoRegions(newData);
+        if (oldRegions == null || newRegions == null) {
+            return null;
+        }
+
+        Map<Integer, List<int[]>> oldRegionsByHash = new HashMap<>();
+        for (int[] region : oldRegions) {
+            int hash = hash(oldData, region[0], region[1]);
+            List<int[]> regions = oldRegionsByHash.get(hash);
+            if (regions == null) {
+                regions = new LinkedList<>();
+                oldRegionsByHash.put(hash, regions);
+            }
+            regions.add(region);
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeInt(os, crc(oldData), 4);
+        writeInt(os, newData.length, 3);
+        writeInt(os, crc(newData), 4);
+
+        // pending operation, merged with following regions when possible
+        int operation = 0;
+        int opOffset = 0;
+        int opLength = 0;
+
+        for (int[] region : newRegions) {
+            int oldOffset = region[1] > COPY_OPERATION_SIZE ? findRegion(oldRegionsByHash, oldData, newData, region) : -1;
+            if (oldOffset >= 0) {
+                if (operation == PATCH_OPERATION_COPY && opOffset + opLength == oldOffset) {
+                    opLength += region[1];
+                    continue;
+                }
+                writeOperation(os, operation, opOffset, opLength, newData);
+                operation = PATCH_OPERATION_COPY;
+                opOffset = oldOffset;
+                opLength = region[1];
+            } else {
+                // regions are contiguous, so inserted data may always be merged
+                if (operation == PATCH_OPERATION_INSERT) {
+                    opLength += region[1];
+                    continue;
+                }
+                writeOperation(os, operation, opOffset, opLength, newData);
+                operation = PATCH_OPERATION_INSERT;
+                opOffset = region[0];
+                opLength = region[1];
+            }
+        }
+        writeOperation(os, operation, opOffset, opLength, newData);
+        os.write(PATCH_OPERATION_END);
+        return os.toByteArray();
+    }
+
+    private static void writeOperation(ByteArrayOutputStream os, int operation, int offset, int length, byte[] newData) {
+        switch (operation) {
+            case PATCH_OPERATION_COPY:
+                os.write(PATCH_OPERATION_COPY);
+                writeInt(os, offset, 3);
+                writeInt(os, length, 3);
+                break;
+            case PATCH_OPERATION_INSERT:
+                os.write(PATCH_OPERATION_INSERT);
+                writeInt(os, length, 3);
+                os.write(newData, offset, length);
+                break;
+        }
+    }
+
+    private static int findRegion(Map<Integer, List<int[]>> oldRegionsByHash, byte[] oldData, byte[] newData, int[] region) {
+        List<int[]> candidates = oldRegionsByHash.get(hash(newData, region[0], region[1]));
+        if (candidates == null) {
+            return -1;
+        }
+        for (int[] candidate : candidates) {
+            if (candidate[1] == region[1] && equals(oldData, candidate[0], newData, region[0], region[1])) {
+                return candidate[0];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits watch set binary into contiguous regions covering the whole data.
+     *
+     * @return List of [offset, length] pairs or null if the data has unknown format.
+     */
+    static List<int[]> splitIntoRegions(byte[] data) {
+        if (data.length < HEADER_SIZE + 1) {
+            return null;
+        }
+        List<int[]> regions = new ArrayList<>();
+        regions.add(new int[]{0, HEADER_SIZE});
+
+        int ptr = HEADER_SIZE;
+        while (ptr < data.length) {
+            int sectionType = data[ptr] & 0xFF;
+            if (sectionType == WatchConstants.WATCH_SET_END_OF_DATA) {
+                regions.add(new int[]{ptr, data.length - ptr});
+                return regions;
+            }
+            if (ptr + 3 > data.length) {
+                return null;
+            }
+            int sectionStart = ptr + 3;
+            int sectionSize = (data[ptr + 1] & 0xFF) << 8 | data[ptr + 2] & 0xFF;
+            int sectionEnd = sectionStart + sectionSize;
+            if (sectionEnd > data.length) {
+                return null;
+            }
+            regions.add(new int[]{ptr, 3});
+
+            boolean valid;
+            switch (sectionType) {
+                case WatchConstants.WATCH_SET_SECTION_SCREENS:
+                    valid = splitTable(data, sectionStart, sectionEnd, 2, regions);
+                    break;
+                case WatchConstants.WATCH_SET_SECTION_RESOURCES:
+                    valid = splitTable(data, sectionStart, sectionEnd, 3, regions);
+                    break;
+                default:
+                    valid = true;
+                    if (sectionSize > 0) {
+                        regions.add(new int[]{sectionStart, sectionSize});
+                    }
+            }
+            if (!valid) {
+                return null;
+            }
+            ptr = sectionEnd;
+        }
+        // missing end of data marker
+        return null;
+    }
+
+    /**
+     * Splits section with format [number of entries][entry offsets table][entries data],
+     * offsets are relative to the section start.
+     */
+    private static boolean splitTable(byte[] data, int sectionStart, int sectionEnd, int offsetSize, List<int[]> regions) {
+        if (sectionStart >= sectionEnd) {
+            return false;
+        }
+        int count = data[sectionStart] & 0xFF;
+        int tableSize = 1 + count * offsetSize;
+        if (sectionStart + tableSize > sectionEnd) {
+            return false;
+        }
+        regions.add(new int[]{sectionStart, tableSize});
+
+        int prevOffset = tableSize;
+        for (int i = 0; i <= count; i++) {
+            int offset = i < count ? readInt(data, sectionStart + 1 + i * offsetSize, offsetSize) : sectionEnd - sectionStart;
+            // entries data starts right after the offsets table, otherwise its beginning isn't covered by any region
+            if (offset < prevOffset || (i == 0 && offset != tableSize) || sectionStart + offset > sectionEnd) {
+                return false;
+            }
+            if (i > 0 && offset > prevOffset) {
+                regions.add(new int[]{sectionStart + prevOffset, offset - prevOffset});
+            }
+            prevOffset = offset;
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset, int size) {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value = value << 8 | data[offset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    private static void writeInt(ByteArrayOutputStream os, int value, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            os.write((value >> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    private static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
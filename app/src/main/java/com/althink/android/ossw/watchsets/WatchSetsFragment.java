@@ -177,7 +177,7 @@ public abstract class WatchSetsFragment extends ListFragment {
                                 CompiledWatchSet compiledWatchSet = new WatchSetCompiler(getActivity()).compile(source, extWatchSetId);
                                 OsswService osswBleService = OsswService.getInstance();
                                 if (osswBleService != null) {
-                                    osswBleService.uploadData(buildDataType(type), compiledWatchSet.getName(), compiledWatchSet.getWatchData());
+                                    osswBleService.uploadWatchSet(buildDataType(type), compiledWatchSet);
                                 }
                             } catch(Exception e) {
                                 toastHandler.post(new Runnable() {
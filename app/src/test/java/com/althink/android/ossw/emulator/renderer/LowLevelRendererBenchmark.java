@@ -0,0 +1,111 @@
+package com.althink.android.ossw.emulator.renderer;
+
+import com.althink.android.ossw.emulator.fonts.CharInfo;
+import com.althink.android.ossw.emulator.fonts.FontInfo;
+import com.althink.android.ossw.emulator.fonts.FontUtils;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures drawing of all glyphs of the bundled fonts, blitted a byte at a time by the renderer and
+ * a pixel at a time by the reference. Each variant is warmed up, the best of the measured rounds is reported.
+ */
+public class LowLevelRendererBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    // glyphs are drawn repeatedly in each round, so a round takes a few milliseconds
+    private static final int REPEATS = 200;
+
+    private final int[] frameBuffer = new int[WatchConstants.SCREEN_WIDTH * WatchConstants.SCREEN_HEIGHT];
+    private final LowLevelRenderer renderer = new LowLevelRenderer(frameBuffer, null);
+    private final PerPixelBlitter reference = new PerPixelBlitter(frameBuffer);
+
+    @Test
+    public void allFonts() {
+        List<FontInfo> fonts = new ArrayList<>();
+        for (int fontType = 0; fontType < 0x20; fontType++) {
+            FontInfo font = FontUtils.resolveFont(fontType);
+            if (!fonts.contains(font)) {
+                fonts.add(font);
+            }
+        }
+        compare("all fonts", fonts);
+    }
+
+    @Test
+    public void optionsBig() {
+        List<FontInfo> fonts = new ArrayList<>();
+        fonts.add(FontUtils.resolveFont(WatchConstants.FONT_OPTION_BIG));
+        compare("OptionsBig", fonts);
+    }
+
+    private void compare(String name, List<FontInfo> fonts) {
+        int glyphs = 0;
+        for (FontInfo font : fonts) {
+            glyphs += glyphs(font).size();
+        }
+        long blitted = measure(fonts, false);
+        long perPixel = measure(fonts, true);
+        long blittedPerGlyph = blitted / (glyphs * REPEATS);
+        long perPixelPerGlyph = perPixel / (glyphs * REPEATS);
+        System.out.println(name + " (" + glyphs + " glyphs): " + perPixelPerGlyph + " -> " + blittedPerGlyph
+                + " ns/glyph (" + String.format("%.1f", (double) perPixel / blitted) + "x)");
+        assertTrue(blitted < perPixel);
+    }
+
+    /**
+     * @return Best time of a round in nanoseconds.
+     */
+    private long measure(List<FontInfo> fonts, boolean perPixel) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int repeat = 0; repeat < REPEATS; repeat++) {
+                for (FontInfo font : fonts) {
+                    drawGlyphs(font, repeat & 7, perPixel);
+                }
+            }
+            long time = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+
+    private void drawGlyphs(FontInfo font, int shift, boolean perPixel) {
+        byte[] bitmaps = font.getFontBitmaps();
+        int x = shift;
+        int y = 0;
+        for (CharInfo glyph : glyphs(font)) {
+            if (x + glyph.getWidth() > WatchConstants.SCREEN_WIDTH) {
+                x = shift;
+                y = (y + font.getHeight()) % (WatchConstants.SCREEN_HEIGHT - font.getHeight());
+            }
+            if (perPixel) {
+                reference.drawBitmap(bitmaps, glyph.getOffset(), x, y, glyph.getWidth(), font.getHeight(), glyph.getWidth(), 0xFFFFFFFF, 0xFF000000);
+            } else {
+                renderer.drawBitmap(bitmaps, glyph.getOffset(), x, y, glyph.getWidth(), font.getHeight(), glyph.getWidth());
+            }
+            x += glyph.getWidth() + font.getCharSpace();
+        }
+    }
+
+    private static List<CharInfo> glyphs(FontInfo font) {
+        List<CharInfo> glyphs = new ArrayList<>();
+        for (char c = font.getMinChar(); c <= font.getMaxChar(); c++) {
+            CharInfo glyph = font.getCharInfo(c);
+            if (glyph != null) {
+                glyphs.add(glyph);
+            }
+        }
+        return glyphs;
+    }
+}
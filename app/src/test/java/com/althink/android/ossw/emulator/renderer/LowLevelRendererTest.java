@@ -0,0 +1,118 @@
+package com.althink.android.ossw.emulator.renderer;
+
+import android.graphics.Rect;
+
+import com.althink.android.ossw.emulator.fonts.CharInfo;
+import com.althink.android.ossw.emulator.fonts.FontInfo;
+import com.althink.android.ossw.emulator.fonts.FontUtils;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares bitmaps blitted a byte at a time with the per-pixel reference.
+ */
+public class LowLevelRendererTest {
+
+    private static final int SCREEN_SIZE = WatchConstants.SCREEN_WIDTH * WatchConstants.SCREEN_HEIGHT;
+
+    private final int[] frameBuffer = new int[SCREEN_SIZE];
+    private final int[] expectedFrameBuffer = new int[SCREEN_SIZE];
+    private final LowLevelRenderer renderer = new LowLevelRenderer(frameBuffer, null);
+    private final PerPixelBlitter reference = new PerPixelBlitter(expectedFrameBuffer);
+    private int foregroundColor;
+    private int backgroundColor;
+
+    @Test
+    public void drawsGlyphsOfAllFonts() {
+        setMode(false, false);
+        for (int fontType = 0; fontType < 0x20; fontType++) {
+            FontInfo font = FontUtils.resolveFont(fontType);
+            for (char c = font.getMinChar(); c <= font.getMaxChar(); c++) {
+                CharInfo glyph = font.getCharInfo(c);
+                if (glyph == null) {
+                    continue;
+                }
+                // every bit position of the first pixel
+                for (int x = 0; x < 8; x++) {
+                    draw(font.getFontBitmaps(), glyph.getOffset(), 20 + x, 30, glyph.getWidth(), font.getHeight(), glyph.getWidth());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clipsHeadAndTailBytes() {
+        setMode(true, false);
+        byte[] bitmap = randomBitmap(new Random(1), 256);
+        // clip edges inside the first, the last and a single byte of each row
+        int[][] clips = {{13, 10, 50, 40}, {10, 10, 14, 40}, {11, 10, 17, 40}, {17, 10, 33, 40}, {0, 0, 0, 0}};
+        for (int[] clip : clips) {
+            setClip(clip[0], clip[1], clip[2], clip[3]);
+            for (int x = 0; x < 8; x++) {
+                draw(bitmap, 3, 10 + x, 12, 35, 20, 37);
+                draw(bitmap, 1, 10 + x, 12, 5, 20, 9);
+            }
+        }
+    }
+
+    @Test
+    public void drawsRandomBitmapsLikePerPixelBlitter() {
+        Random random = new Random(2);
+        byte[] bitmap = randomBitmap(random, 4096);
+        for (int i = 0; i < 20000; i++) {
+            setMode(random.nextBoolean(), random.nextBoolean());
+            if (random.nextInt(4) == 0) {
+                setClip(-1, -1, WatchConstants.SCREEN_WIDTH + 1, WatchConstants.SCREEN_HEIGHT + 1);
+            } else {
+                int left = random.nextInt(WatchConstants.SCREEN_WIDTH + 10) - 5;
+                int top = random.nextInt(WatchConstants.SCREEN_HEIGHT + 10) - 5;
+                setClip(left, top, left + random.nextInt(80), top + random.nextInt(80));
+            }
+            int bitmapWidth = 1 + random.nextInt(64);
+            int width = 1 + random.nextInt(bitmapWidth);
+            int height = 1 + random.nextInt(32);
+            int offset = random.nextInt(bitmap.length - height * ((bitmapWidth + 7) / 8));
+            int x = random.nextInt(WatchConstants.SCREEN_WIDTH + 2 * width) - width;
+            int y = random.nextInt(WatchConstants.SCREEN_HEIGHT + 2 * height) - height;
+            draw(bitmap, offset, x, y, width, height, bitmapWidth);
+        }
+    }
+
+    private void draw(byte[] bitmap, int offset, int x, int y, int width, int height, int bitmapWidth) {
+        renderer.drawBitmap(bitmap, offset, x, y, width, height, bitmapWidth);
+        reference.drawBitmap(bitmap, offset, x, y, width, height, bitmapWidth, foregroundColor, backgroundColor);
+        assertArrayEquals(expectedFrameBuffer, frameBuffer);
+    }
+
+    private void setMode(boolean inverted, boolean backlight) {
+        renderer.setMode(inverted, backlight);
+        renderer.setClip(null);
+        // colors of the mode read back from the frame buffer, the reference uses the same ones
+        renderer.drawRect(0, 0, 1, 1);
+        foregroundColor = frameBuffer[0];
+        renderer.clearRect(0, 0, 1, 1);
+        backgroundColor = frameBuffer[0];
+        expectedFrameBuffer[0] = backgroundColor;
+    }
+
+    private void setClip(int left, int top, int right, int bottom) {
+        Rect clip = new Rect();
+        clip.left = left;
+        clip.top = top;
+        clip.right = right;
+        clip.bottom = bottom;
+        renderer.setClip(clip);
+        reference.setClip(left, top, right, bottom);
+    }
+
+    private static byte[] randomBitmap(Random random, int size) {
+        byte[] bitmap = new byte[size];
+        random.nextBytes(bitmap);
+        return bitmap;
+    }
+}
@@ -0,0 +1,44 @@
+package com.althink.android.ossw.emulator.renderer;
+
+import com.althink.android.ossw.watch.WatchConstants;
+
+/**
+ * Draws 1-bpp bitmaps a pixel at a time, the way the renderer did before it blitted whole bytes.
+ * Reference for tests and benchmarks of {@link LowLevelRenderer#drawBitmap}.
+ */
+class PerPixelBlitter {
+
+    private final int[] frameBuffer;
+    private int clipLeft = 0;
+    private int clipTop = 0;
+    private int clipRight = WatchConstants.SCREEN_WIDTH;
+    private int clipBottom = WatchConstants.SCREEN_HEIGHT;
+
+    PerPixelBlitter(int[] frameBuffer) {
+        this.frameBuffer = frameBuffer;
+    }
+
+    void setClip(int left, int top, int right, int bottom) {
+        clipLeft = Math.max(left, 0);
+        clipTop = Math.max(top, 0);
+        clipRight = Math.min(right, WatchConstants.SCREEN_WIDTH);
+        clipBottom = Math.min(bottom, WatchConstants.SCREEN_HEIGHT);
+    }
+
+    void drawBitmap(byte[] bitmap, int offset, int posX, int posY, int width, int height, int bitmapWidth,
+                    int foregroundColor, int backgroundColor) {
+        int minX = Math.max(0, clipLeft - posX);
+        int maxX = Math.min(width, clipRight - posX);
+        int minY = Math.max(0, clipTop - posY);
+        int maxY = Math.min(height, clipBottom - posY);
+        int bitmapByteWidth = (bitmapWidth + 7) / 8;
+        for (int y = minY; y < maxY; y++) {
+            int p = ((posY + y) * WatchConstants.SCREEN_WIDTH) + posX + minX;
+            for (int x = minX; x < maxX; x++) {
+                boolean val = ((bitmap[offset + (bitmapByteWidth * y) + (x / 8)] >> (7 - (x % 8))) & 0x1) != 0;
+                frameBuffer[p] = val ? foregroundColor : backgroundColor;
+                p++;
+            }
+        }
+    }
+}
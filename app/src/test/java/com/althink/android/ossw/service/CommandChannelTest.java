@@ -0,0 +1,155 @@
+package com.althink.android.ossw.service;
+
+import com.althink.android.ossw.service.ble.FakeWatchDevice;
+import com.althink.android.ossw.service.ble.WatchDataHandler;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandChannelTest {
+
+    private CommandChannel channel;
+    private FakeWatchDevice watch;
+
+    @Before
+    public void setUp() {
+        channel = new CommandChannel(UUID.randomUUID());
+        watch = new FakeWatchDevice(new WatchDataHandler() {
+            @Override
+            public void handleWatchData(byte[] value) {
+                channel.handleWatchData(value);
+            }
+        }, 1);
+        watch.setMtu(23);
+        watch.setLatency(10);
+        channel.setWatchTransport(watch);
+        watch.setConnectionStatusHandler(channel);
+        channel.start();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdown();
+        watch.shutdown();
+    }
+
+    @Test
+    public void matchesAcksWithoutSequence() throws Exception {
+        List<OsswCommandFuture> commands = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            // chunk without started upload is rejected by the watch
+            byte[] command = i % 2 == 0 ? new byte[]{0x43, 0, (byte) i, 0, 5} : new byte[]{0x21, (byte) i};
+            commands.add(channel.sendCommandAsync(CommandPriority.BULK, command, null));
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            assertEquals(i % 2 == 0 ? FakeWatchDevice.STATUS_OK : FakeWatchDevice.STATUS_ERROR,
+                    (int) commands.get(i).get(2, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void matchesAcksBySequence() throws Exception {
+        queryCapabilities(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE);
+        List<OsswCommandFuture> commands = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            byte[] command = i % 2 == 0 ? new byte[]{0x43, 0, (byte) i, 0, 5} : new byte[]{0x21, (byte) i};
+            commands.add(channel.sendCommandAsync(CommandPriority.BULK, command, null));
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            assertEquals(i % 2 == 0 ? FakeWatchDevice.STATUS_OK : FakeWatchDevice.STATUS_ERROR,
+                    (int) commands.get(i).get(2, TimeUnit.SECONDS));
+            assertTrue(commands.get(i).getCommandSeq() >= 0);
+        }
+    }
+
+    @Test
+    public void failsCommandLostBeforeAcknowledgedOne() throws Exception {
+        queryCapabilities(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE);
+        channel.setAckTimeout(10000);
+        watch.loseNextPackets(1);
+
+        OsswCommandFuture lost = channel.sendCommandAsync(CommandPriority.BULK, new byte[]{0x43, 0, 1, 0, 5}, null);
+        OsswCommandFuture acknowledged = channel.sendCommandAsync(CommandPriority.BULK, new byte[]{0x44, 0, 1}, null);
+
+        assertEquals(0, (int) acknowledged.get(2, TimeUnit.SECONDS));
+        // failed by the ACK of the next command, long before the ACK timeout
+        assertEquals(OsswCommandFuture.RESULT_TIMEOUT, (int) lost.get(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 2000));
+    }
+
+    @Test
+    public void continuesAfterLostCommandWithoutSequence() throws Exception {
+        channel.setAckTimeout(300);
+        watch.loseNextPackets(1);
+
+        // single packet command lost completely, older firmware doesn't know about it
+        assertEquals(OsswCommandFuture.RESULT_TIMEOUT, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 300));
+
+        assertEquals(0, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 2000));
+        assertEquals(FakeWatchDevice.STATUS_ERROR, channel.sendCommand(CommandPriority.BULK, new byte[]{0x21, 1}, 2, 2000));
+    }
+
+    @Test
+    public void continuesAfterLostCommandWithSequence() throws Exception {
+        queryCapabilities(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE);
+        for (int i = 0; i < 5; i++) {
+            watch.loseNextPackets(1);
+            assertEquals(OsswCommandFuture.RESULT_TIMEOUT, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 300));
+        }
+
+        assertEquals(0, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 2000));
+        assertEquals(FakeWatchDevice.STATUS_ERROR, channel.sendCommand(CommandPriority.BULK, new byte[]{0x21, 1}, 2, 2000));
+    }
+
+    @Test
+    public void forgetsConnectionOnLinkLoss() throws Exception {
+        queryCapabilities(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE | WatchConstants.FW_CAPABILITY_BATCH);
+        watch.setLatency(1000);
+        OsswCommandFuture pending = channel.sendCommandAsync(CommandPriority.BULK, new byte[]{0x44, 0, 1}, null);
+        Thread.sleep(50);
+
+        watch.setConnected(false);
+
+        assertEquals(OsswCommandFuture.RESULT_NOT_SENT, (int) pending.get(100, TimeUnit.MILLISECONDS));
+        assertFalse(channel.isCommandSequenceSupported());
+        assertFalse(channel.isBatchSupported());
+
+        watch.setLatency(10);
+        watch.setConnected(true);
+        queryCapabilities(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE);
+        assertEquals(0, channel.sendCommand(CommandPriority.BULK, new byte[]{0x44, 0, 1}, 3, 2000));
+    }
+
+    @Test
+    public void sendsSmallCommandsInBatch() throws Exception {
+        queryCapabilities(WatchConstants.FW_CAPABILITY_BATCH);
+        assertTrue(channel.isBatchSupported());
+        long commands = watch.getReceivedCommands();
+
+        OsswCommandFuture time = channel.sendBatchableCommandAsync(CommandPriority.INTERACTIVE, new byte[]{0x10, 0x12, 0x34, 0x56, 0x78}, null);
+        OsswCommandFuture alert = channel.sendBatchableCommandAsync(CommandPriority.ALERT, new byte[]{0x44, 0, 1}, null);
+
+        assertEquals(0, (int) time.get(2, TimeUnit.SECONDS));
+        assertEquals(0, (int) alert.get(2, TimeUnit.SECONDS));
+        assertEquals(0x12345678, watch.getTime());
+        assertEquals(commands + 1, watch.getReceivedCommands());
+    }
+
+    private void queryCapabilities(int capabilities) {
+        watch.setCapabilities(capabilities, 1);
+        assertEquals(0, channel.sendCommand(CommandPriority.INTERACTIVE, new byte[]{WatchConstants.OSSW_TX_COMMAND_GET_CAPABILITIES}, 1, 1000));
+    }
+}
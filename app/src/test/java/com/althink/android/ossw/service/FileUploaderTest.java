@@ -0,0 +1,209 @@
+package com.althink.android.ossw.service;
+
+import com.althink.android.ossw.service.ble.FakeWatchDevice;
+import com.althink.android.ossw.service.ble.WatchDataHandler;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uploads files end to end through the command channel to the fake watch.
+ */
+public class FileUploaderTest {
+
+    private static final String PATH = "f/test";
+    private static final long ACK_TIMEOUT = 300;
+    private static final int MAX_ATTEMPTS = 30;
+
+    private static final UploadProgressHandler NO_PROGRESS = new UploadProgressHandler() {
+        @Override
+        public void handleProgress(int percent) {
+        }
+    };
+
+    private CommandChannel channel;
+    private FakeWatchDevice watch;
+    private FileUploader uploader;
+
+    @Before
+    public void setUp() {
+        channel = new CommandChannel(UUID.randomUUID());
+        watch = new FakeWatchDevice(new WatchDataHandler() {
+            @Override
+            public void handleWatchData(byte[] value) {
+                channel.handleWatchData(value);
+            }
+        }, 1);
+        channel.setWatchTransport(watch);
+        watch.setConnectionStatusHandler(channel);
+        channel.setAckTimeout(ACK_TIMEOUT);
+        channel.start();
+        uploader = new FileUploader(channel);
+        uploader.setChunkAckTimeout(ACK_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdown();
+        watch.shutdown();
+    }
+
+    @Test
+    public void uploadsFileToOldFirmware() {
+        watch.setMtu(23);
+        watch.setLatency(2);
+        connect(0, 1);
+        byte[] data = randomBytes(3000, 2);
+
+        assertTrue(upload(data, null));
+        assertArrayEquals(data, watch.getFile(PATH));
+    }
+
+    @Test
+    public void uploadsCompressedFileInWindows() {
+        watch.setMtu(158);
+        watch.setLatency(20);
+        connect(WatchConstants.FW_CAPABILITY_WINDOWED_UPLOAD | WatchConstants.FW_CAPABILITY_COMPRESSED_UPLOAD, 8);
+        byte[] data = textBytes(20000);
+
+        assertTrue(upload(data, null));
+        assertArrayEquals(data, watch.getFile(PATH));
+        assertTrue(watch.getReceivedBytes() < data.length / 2);
+    }
+
+    @Test
+    public void resumesUploadOverLossyLink() {
+        watch.setMtu(64);
+        watch.setLatency(5);
+        connect(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD | WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE, 1);
+        watch.setLossRate(0.02);
+        byte[] data = randomBytes(16 * 1024, 3);
+
+        boolean committed = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !committed; attempt++) {
+            // the connection is kept, lost commands don't affect ACKs of the following ones
+            committed = upload(data, null);
+        }
+
+        assertTrue(committed);
+        assertArrayEquals(data, watch.getFile(PATH));
+        assertTrue(watch.getLostPackets() + watch.getLostReplies() > 0);
+    }
+
+    @Test
+    public void uploadsInWindowsOverLossyLink() {
+        watch.setMtu(158);
+        watch.setLatency(5);
+        connect(WatchConstants.FW_CAPABILITY_WINDOWED_UPLOAD | WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE, 8);
+        watch.setLossRate(0.01);
+        byte[] data = randomBytes(8 * 1024, 4);
+
+        boolean committed = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !committed; attempt++) {
+            committed = upload(data, null);
+        }
+
+        assertTrue(committed);
+        assertArrayEquals(data, watch.getFile(PATH));
+        assertTrue(watch.getLostPackets() + watch.getLostReplies() > 0);
+    }
+
+    @Test
+    public void resumesUploadAfterReconnection() {
+        watch.setMtu(64);
+        watch.setLatency(5);
+        watch.setLossRate(0.02);
+        byte[] data = randomBytes(16 * 1024, 3);
+
+        boolean committed = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !committed; attempt++) {
+            // older firmware without sequence numbers, the upload continues after reconnection
+            connect(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD, 1);
+            committed = upload(data, null);
+        }
+
+        assertTrue(committed);
+        assertArrayEquals(data, watch.getFile(PATH));
+        assertTrue(watch.getLostPackets() + watch.getLostReplies() > 0);
+    }
+
+    @Test
+    public void uploadsWatchSetPatch() {
+        watch.setMtu(100);
+        watch.setLatency(5);
+        connect(WatchConstants.FW_CAPABILITY_PATCH_UPLOAD, 1);
+        byte[] oldData = watchSet(1, 2);
+        byte[] newData = watchSet(1, 3);
+        assertTrue(upload(oldData, null));
+        long sentBytes = watch.getReceivedBytes();
+
+        assertTrue(upload(newData, oldData));
+        assertArrayEquals(newData, watch.getFile(PATH));
+        assertTrue(watch.getReceivedBytes() - sentBytes < newData.length / 4);
+    }
+
+    private boolean upload(byte[] data, byte[] previousData) {
+        return uploader.upload(PATH, PATH.getBytes(), data, previousData, NO_PROGRESS);
+    }
+
+    /**
+     * Connects the watch again and reads its capabilities, like the service does after connection.
+     */
+    private void connect(int capabilities, int uploadWindow) {
+        watch.setConnected(false);
+        watch.setCapabilities(capabilities, uploadWindow);
+        watch.setConnected(true);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int result = channel.sendCommand(CommandPriority.INTERACTIVE, new byte[]{WatchConstants.OSSW_TX_COMMAND_GET_CAPABILITIES}, 1, ACK_TIMEOUT);
+            // older firmware rejects the command, capabilities are sent before the ACK and may be lost
+            if (capabilities == 0 ? result >= 0 : channel.hasCapability(capabilities)) {
+                return;
+            }
+        }
+        throw new AssertionError("Capabilities not received");
+    }
+
+    /**
+     * Watch set with a header, a small section and a big section, the big one depends only on the seed.
+     */
+    private static byte[] watchSet(long bigSectionSeed, long smallSectionSeed) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(randomBytes(8, 0), 0, 8);
+        writeSection(os, WatchConstants.WATCH_SET_SECTION_EXTERNAL_PROPERTIES, randomBytes(200, smallSectionSeed));
+        writeSection(os, 0x10, randomBytes(6000, bigSectionSeed));
+        os.write(WatchConstants.WATCH_SET_END_OF_DATA);
+        return os.toByteArray();
+    }
+
+    private static void writeSection(ByteArrayOutputStream os, int type, byte[] data) {
+        os.write(type);
+        os.write(data.length >> 8);
+        os.write(data.length & 0xFF);
+        os.write(data, 0, data.length);
+    }
+
+    private static byte[] textBytes(int size) {
+        String[] words = {"watch", "set", "screen", "control", "upload", "chunk", "window", "ack"};
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,227 @@
+package com.althink.android.ossw.service;
+
+import com.althink.android.ossw.service.ble.PacketPool;
+import com.althink.android.ossw.service.ble.PacketWriteFailureHandler;
+import com.althink.android.ossw.service.ble.PacketWriteQueue;
+import com.althink.android.ossw.service.ble.WatchTransport;
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures memory allocated by all threads per uploaded KB of a stop-and-wait file upload: chunk commands
+ * built by {@link FileUploader}, framed into packets by {@link CommandChannel} and written through the
+ * packet pool and the write ring the same way as by the BLE service. The transport acknowledges commands
+ * with preallocated replies, so it doesn't allocate anything itself.
+ */
+public class UploadAllocationBenchmark {
+
+    private static final String PATH = "f/bench";
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int WARMUP_KB = 256;
+    private static final int MEASURED_KB = 1024;
+    // futures, scheduler and timeout tasks of each 256 bytes command, packets shouldn't cost anything
+    private static final long MAX_BYTES_PER_KB = 4096;
+
+    private static final UploadProgressHandler NO_PROGRESS = new UploadProgressHandler() {
+        @Override
+        public void handleProgress(int percent) {
+        }
+    };
+
+    private CommandChannel channel;
+    private AckingTransport transport;
+    private FileUploader uploader;
+
+    @Before
+    public void setUp() {
+        channel = new CommandChannel(UUID.randomUUID());
+        transport = new AckingTransport();
+        channel.setWatchTransport(transport);
+        channel.start();
+        uploader = new FileUploader(channel);
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdown();
+        transport.shutdown();
+    }
+
+    @Test
+    public void bytesAllocatedPerUploadedKbWithSequence() throws Exception {
+        measure("sequenced commands, MTU 158", WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE, 158);
+    }
+
+    @Test
+    public void bytesAllocatedPerUploadedKbWithMinimalMtu() throws Exception {
+        measure("sequenced commands, MTU 23", WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE, 23);
+    }
+
+    @Test
+    public void bytesAllocatedPerUploadedKbWithoutSequence() throws Exception {
+        measure("commands without sequence, MTU 158", 0, 158);
+    }
+
+    private void measure(String name, int capabilities, int mtu) throws Exception {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        transport.mtu = mtu;
+        channel.handleWatchData(new byte[]{WatchConstants.OSSW_RX_COMMAND_CAPABILITIES, (byte) capabilities, 1});
+        byte[] warmupData = randomBytes(WARMUP_KB * 1024);
+        byte[] data = randomBytes(MEASURED_KB * 1024);
+
+        assertTrue(uploader.upload(PATH, PATH.getBytes(), warmupData, null, NO_PROGRESS));
+        long[] threadIds = allocations.getAllThreadIds();
+        long allocatedBytes = sum(allocations.getThreadAllocatedBytes(threadIds));
+
+        assertTrue(uploader.upload(PATH, PATH.getBytes(), data, null, NO_PROGRESS));
+
+        allocatedBytes = sum(allocations.getThreadAllocatedBytes(threadIds)) - allocatedBytes;
+        long bytesPerKb = allocatedBytes / MEASURED_KB;
+        System.out.println("Upload with " + name + " allocates " + bytesPerKb + " bytes per uploaded KB, packets reused: "
+                + transport.packetPool.getReusedPackets() + ", allocated: " + transport.packetPool.getAllocatedPackets());
+        assertTrue(bytesPerKb <= MAX_BYTES_PER_KB);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            // threads which ended in the meantime report -1
+            sum += Math.max(0, value);
+        }
+        return sum;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Writes packets from the ring on a single thread like the BLE service and acknowledges each command
+     * from another thread like the watch notifications.
+     */
+    private class AckingTransport implements WatchTransport {
+
+        private volatile int mtu = 23;
+        private final PacketPool packetPool = new PacketPool(QUEUE_CAPACITY + 2);
+        private final PacketWriteQueue<UUID> packetWriteQueue = new PacketWriteQueue<>(QUEUE_CAPACITY, packetPool);
+        private final PacketWriteQueue.Entry<UUID> packetWrite = new PacketWriteQueue.Entry<>();
+        private final ExecutorService writeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY));
+        private final BlockingQueue<byte[]> replies = new ArrayBlockingQueue<>(256);
+        private final byte[] ack = {WatchConstants.OSSW_RX_COMMAND_COMMAND_ACK, 0};
+        private final byte[][] sequencedAcks = new byte[256][];
+        private final Thread replyThread;
+        // sequence number of the command being received, accessed by the writer only
+        private int commandSeq;
+
+        private final Runnable packetWriter = new Runnable() {
+            @Override
+            public void run() {
+                while (packetWriteQueue.poll(packetWrite)) {
+                    receivePacket(packetWrite.getPacket());
+                    packetWriteQueue.finish(packetWrite);
+                }
+            }
+        };
+
+        AckingTransport() {
+            for (int seq = 0; seq < sequencedAcks.length; seq++) {
+                sequencedAcks[seq] = new byte[]{WatchConstants.OSSW_RX_COMMAND_COMMAND_ACK, 0, (byte) seq};
+            }
+            replyThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            channel.handleWatchData(replies.take());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            replyThread.start();
+        }
+
+        void shutdown() {
+            writeExecutor.shutdownNow();
+            replyThread.interrupt();
+        }
+
+        private void receivePacket(byte[] packet) {
+            switch (packet[0]) {
+                case 0x40:
+                case 0x43:
+                    commandSeq = -1;
+                    break;
+                case 0x44:
+                case 0x47:
+                    commandSeq = packet[1] & 0xFF;
+                    break;
+            }
+            if (packet[0] == 0x42 || packet[0] == 0x43 || packet[0] == 0x47) {
+                replies.offer(commandSeq >= 0 ? sequencedAcks[commandSeq] : ack);
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public int getMaxWriteSize() {
+            return mtu - 3;
+        }
+
+        @Override
+        public byte[] obtainPacket(int size) {
+            return packetPool.obtain(size);
+        }
+
+        @Override
+        public void writePacket(UUID characteristicUuid, byte[] packet, PacketWriteFailureHandler failureHandler) {
+            try {
+                if (packetWriteQueue.put(characteristicUuid, packet, true, failureHandler)) {
+                    writeExecutor.execute(packetWriter);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void writeCharacteristic(UUID characteristicUuid, byte[] data) {
+        }
+
+        @Override
+        public void beginTransfer() {
+        }
+
+        @Override
+        public void endTransfer() {
+        }
+    }
+}
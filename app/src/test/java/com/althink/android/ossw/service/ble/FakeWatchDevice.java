@@ -0,0 +1,697 @@
+package com.althink.android.ossw.service.ble;
+
+import com.althink.android.ossw.service.ExtParamDeltaEncoder;
+import com.althink.android.ossw.utils.Crc16;
+import com.althink.android.ossw.utils.Lzss;
+import com.althink.android.ossw.watch.WatchConstants;
+import com.althink.android.ossw.watchsets.WatchSetPatchBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Simulates the watch side of the OSSW protocol without Bluetooth, so transfers may be run and measured
+ * on any JVM. Supports command framing, capabilities, all file upload protocols (stop-and-wait, windowed,
+ * resumable, patch, compressed), batches, notification upload and external params. Every command is
+ * acknowledged after the configured latency, with the sequence number the command was sent with, if any.
+ * Packets and replies may be lost with the configured probability.
+ */
+public class FakeWatchDevice implements WatchTransport {
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    // minimal ATT MTU, no android dependencies to keep the class usable on any JVM
+    public static final int DEFAULT_MTU = 23;
+
+    private static final int REPLY_COMMAND_ACK = 0x40;
+    // returned by command handlers which don't send ACK
+    private static final int NO_ACK = -1;
+    // data bytes in a single windowed upload chunk
+    private static final int WINDOWED_CHUNK_SIZE = 256 - 3;
+
+    private static final int UPLOAD_PLAIN = 0;
+    private static final int UPLOAD_WINDOWED = 1;
+    private static final int UPLOAD_RESUMABLE = 2;
+    private static final int UPLOAD_PATCH = 3;
+
+    private final WatchDataHandler dataHandler;
+    private volatile BleConnectionStatusHandler connectionStatusHandler;
+    private final Random random;
+    private final ScheduledExecutorService replyExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile boolean connected = true;
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile long latency = 0;
+    private volatile double lossRate = 0;
+    private volatile int capabilities = 0;
+    private volatile int uploadWindow = 1;
+    // packets to lose regardless of the loss rate
+    private int packetsToLose;
+
+    // command being received
+    private ByteArrayOutputStream command;
+    private boolean commandCorrupted;
+    // sequence number sent with the command being received, -1 if it was sent without it
+    private int commandSeq = -1;
+
+    private int uploadType;
+    private String uploadFileName;
+    private int uploadSize;
+    private ByteArrayOutputStream uploadData;
+    // size of decoded data of the current and the next upload, -1 if it's not encoded
+    private int uploadDecodedSize = -1;
+    private int nextUploadDecodedSize = -1;
+    private int nextWindowedChunk;
+    // partially uploaded file kept for resuming
+    private String resumableFileName;
+    private int resumableHash;
+    private ByteArrayOutputStream resumableData;
+    private final Map<String, byte[]> files = new HashMap<>();
+
+    private int notificationSize;
+    private ByteArrayOutputStream notificationData;
+    private final List<byte[]> notifications = new ArrayList<>();
+
+    private final Map<Integer, byte[]> extParams = new HashMap<>();
+    private boolean connectionConfirmed;
+    private int time;
+
+    private long receivedPackets;
+    private long receivedBytes;
+    private long receivedCommands;
+    private long lostPackets;
+    private long lostReplies;
+
+    /**
+     * @param dataHandler Receives the data sent by the watch, called from a worker thread.
+     * @param seed        Seed of the packet loss generator, so simulations are repeatable.
+     */
+    public FakeWatchDevice(WatchDataHandler dataHandler, long seed) {
+        this.dataHandler = dataHandler;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param connectionStatusHandler Notified when the connection is lost and restored, like by the BLE service.
+     */
+    public void setConnectionStatusHandler(BleConnectionStatusHandler connectionStatusHandler) {
+        this.connectionStatusHandler = connectionStatusHandler;
+    }
+
+    /**
+     * Commands in progress are lost with the connection, the partially uploaded resumable file is kept.
+     * Lost connection is reported as automatic reconnection, as the BLE service does on link loss.
+     */
+    public void setConnected(boolean connected) {
+        synchronized (this) {
+            this.connected = connected;
+            if (connected) {
+                command = null;
+            }
+        }
+        BleConnectionStatusHandler handler = connectionStatusHandler;
+        if (handler != null) {
+            handler.handleConnectionStatusChange(connected ? BleConnectionStatus.CONNECTED : BleConnectionStatus.AUTO_RECONNECT);
+        }
+    }
+
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    /**
+     * @param latency Time in milliseconds between receiving a command and delivering its reply.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param lossRate Probability of losing each packet sent to the watch and each reply.
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @param capabilities Features reported in reply to the get capabilities command, 0 for firmware
+     *                     which doesn't support the command. Commands sent with sequence are ignored
+     *                     without {@link WatchConstants#FW_CAPABILITY_COMMAND_SEQUENCE}.
+     */
+    public void setCapabilities(int capabilities, int uploadWindow) {
+        this.capabilities = capabilities;
+        this.uploadWindow = uploadWindow;
+    }
+
+    /**
+     * Loses the next packets sent to the watch, e.g. to lose a whole command.
+     */
+    public synchronized void loseNextPackets(int count) {
+        packetsToLose = count;
+    }
+
+    public void shutdown() {
+        replyExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int getMaxWriteSize() {
+        return mtu - 3;
+    }
+
+    @Override
+    public byte[] obtainPacket(int size) {
+        return new byte[size];
+    }
+
+    @Override
+    public synchronized void writePacket(UUID characteristicUuid, byte[] packet, PacketWriteFailureHandler failureHandler) {
+        if (!connected || packet.length == 0) {
+            return;
+        }
+        if (packet.length > getMaxWriteSize()) {
+            throw new IllegalArgumentException("Packet exceeds MTU: " + packet.length);
+        }
+        if (packetsToLose > 0 || isLost()) {
+            if (packetsToLose > 0) {
+                packetsToLose--;
+            }
+            lostPackets++;
+            commandCorrupted = true;
+            return;
+        }
+        receivedPackets++;
+        receivedBytes += packet.length;
+
+        boolean sequenced = packet[0] == 0x44 || packet[0] == 0x47;
+        if (sequenced && (!hasCapability(WatchConstants.FW_CAPABILITY_COMMAND_SEQUENCE) || packet.length < 2)) {
+            return;
+        }
+        int dataOffset = sequenced ? 2 : 1;
+        switch (packet[0]) {
+            case 0x40:
+            case 0x43:
+            case 0x44:
+            case 0x47:
+                if (command != null) {
+                    // last packet of the previous command was lost
+                    finishCommand(true);
+                }
+                command = new ByteArrayOutputStream();
+                commandCorrupted = false;
+                commandSeq = sequenced ? packet[1] & 0xFF : -1;
+                break;
+            case 0x41:
+            case 0x42:
+                if (command == null) {
+                    // first packet of the command was lost, so is its sequence number
+                    command = new ByteArrayOutputStream();
+                    commandCorrupted = true;
+                    commandSeq = -1;
+                }
+                break;
+            default:
+                return;
+        }
+        command.write(packet, dataOffset, packet.length - dataOffset);
+        if (packet[0] == 0x42 || packet[0] == 0x43 || packet[0] == 0x47) {
+            finishCommand(commandCorrupted);
+        }
+    }
+
+    @Override
+    public synchronized void writeCharacteristic(UUID characteristicUuid, byte[] data) {
+        if (!connected || data.length == 0) {
+            return;
+        }
+        switch (data[0]) {
+            case 0x01:
+                connectionConfirmed = true;
+                break;
+            case 0x10:
+                setTime(data);
+                break;
+        }
+    }
+
+    @Override
+    public void beginTransfer() {
+    }
+
+    @Override
+    public void endTransfer() {
+    }
+
+    /**
+     * Sends data from the watch to the host, e.g. to change the active watch set.
+     */
+    public void sendToHost(final byte[] data, long delay) {
+        replyExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dataHandler.handleWatchData(data);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void finishCommand(boolean corrupted) {
+        byte[] data = command.toByteArray();
+        command = null;
+        receivedCommands++;
+        int seq = commandSeq;
+        if (corrupted || data.length == 0) {
+            // no reply, the host detects the problem by ACK timeout
+            return;
+        }
+        int status = handleCommand(data);
+        if (status == NO_ACK) {
+            return;
+        }
+        if (seq >= 0) {
+            reply(new byte[]{REPLY_COMMAND_ACK, (byte) status, (byte) seq});
+        } else {
+            reply(new byte[]{REPLY_COMMAND_ACK, (byte) status});
+        }
+    }
+
+    private int handleCommand(byte[] data) {
+        switch (data[0]) {
+            case WatchConstants.OSSW_TX_COMMAND_GET_CAPABILITIES:
+                if (capabilities == 0) {
+                    // older firmware doesn't know the command
+                    return STATUS_ERROR;
+                }
+                reply(new byte[]{WatchConstants.OSSW_RX_COMMAND_CAPABILITIES, (byte) capabilities, (byte) uploadWindow});
+                return STATUS_OK;
+            case 0x20:
+                startUpload(UPLOAD_PLAIN, readInt(data, 1, 3), readString(data, 4));
+                return STATUS_OK;
+            case 0x21:
+                if (uploadData == null || (uploadType != UPLOAD_PLAIN && uploadType != UPLOAD_PATCH)
+                        || uploadData.size() + data.length - 1 > uploadSize) {
+                    return STATUS_ERROR;
+                }
+                uploadData.write(data, 1, data.length - 1);
+                return STATUS_OK;
+            case 0x22:
+                return commitUpload();
+            case WatchConstants.OSSW_TX_COMMAND_INIT_WINDOWED_UPLOAD:
+                if (!hasCapability(WatchConstants.FW_CAPABILITY_WINDOWED_UPLOAD)) {
+                    return STATUS_ERROR;
+                }
+                startUpload(UPLOAD_WINDOWED, readInt(data, 1, 3), readString(data, 5));
+                nextWindowedChunk = 0;
+                return STATUS_OK;
+            case WatchConstants.OSSW_TX_COMMAND_WINDOWED_UPLOAD_CHUNK:
+                handleWindowedChunk(data);
+                return NO_ACK;
+            case WatchConstants.OSSW_TX_COMMAND_INIT_RESUMABLE_UPLOAD:
+                return initResumableUpload(data);
+            case WatchConstants.OSSW_TX_COMMAND_RESUMABLE_UPLOAD_CHUNK:
+                return handleResumableChunk(data);
+            case WatchConstants.OSSW_TX_COMMAND_INIT_PATCH_UPLOAD:
+                if (!hasCapability(WatchConstants.FW_CAPABILITY_PATCH_UPLOAD)) {
+                    return STATUS_ERROR;
+                }
+                String patchedFileName = readString(data, 4);
+                if (!files.containsKey(patchedFileName)) {
+                    return STATUS_ERROR;
+                }
+                startUpload(UPLOAD_PATCH, readInt(data, 1, 3), patchedFileName);
+                return STATUS_OK;
+            case WatchConstants.OSSW_TX_COMMAND_SET_UPLOAD_ENCODING:
+                if (!hasCapability(WatchConstants.FW_CAPABILITY_COMPRESSED_UPLOAD) || data[1] != WatchConstants.UPLOAD_ENCODING_LZSS) {
+                    return STATUS_ERROR;
+                }
+                nextUploadDecodedSize = readInt(data, 2, 3);
+                return STATUS_OK;
+            case WatchConstants.OSSW_TX_COMMAND_BATCH:
+                return hasCapability(WatchConstants.FW_CAPABILITY_BATCH) ? handleBatch(data) : STATUS_ERROR;
+            case 0x30:
+                return handleExtParams(data);
+            case 0x31:
+                return handleExtParamsDelta(data);
+            case 0x40:
+                notificationSize = (data[1] & 0xFF) << 8 | data[2] & 0xFF;
+                notificationData = new ByteArrayOutputStream(notificationSize);
+                return STATUS_OK;
+            case 0x41:
+                if (notificationData == null || notificationData.size() + data.length - 1 > notificationSize) {
+                    return STATUS_ERROR;
+                }
+                notificationData.write(data, 1, data.length - 1);
+                return STATUS_OK;
+            case 0x42:
+                if (notificationData == null || notificationData.size() != notificationSize) {
+                    return STATUS_ERROR;
+                }
+                notifications.add(notificationData.toByteArray());
+                notificationData = null;
+                return STATUS_OK;
+            case 0x43:
+            case 0x44:
+                // extend or close alert
+                return STATUS_OK;
+            default:
+                return STATUS_ERROR;
+        }
+    }
+
+    private boolean hasCapability(int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    private void startUpload(int type, int size, String fileName) {
+        uploadType = type;
+        uploadSize = size;
+        uploadFileName = fileName;
+        uploadData = new ByteArrayOutputStream(size);
+        // encoding applies to the next upload only
+        uploadDecodedSize = nextUploadDecodedSize;
+        nextUploadDecodedSize = -1;
+    }
+
+    private int commitUpload() {
+        if (uploadData == null || uploadData.size() != uploadSize) {
+            return STATUS_ERROR;
+        }
+        byte[] data = uploadData.toByteArray();
+        int type = uploadType;
+        uploadData = null;
+        if (type == UPLOAD_RESUMABLE) {
+            resumableFileName = null;
+            resumableData = null;
+        }
+        try {
+            if (uploadDecodedSize >= 0) {
+                data = Lzss.decompress(data, uploadDecodedSize);
+            }
+        } catch (RuntimeException e) {
+            return STATUS_ERROR;
+        }
+        if (type == UPLOAD_PATCH) {
+            data = applyPatch(files.get(uploadFileName), data);
+            if (data == null) {
+                return STATUS_ERROR;
+            }
+        }
+        files.put(uploadFileName, data);
+        return STATUS_OK;
+    }
+
+    /**
+     * Acknowledges chunks cumulatively, a chunk received out of order is rejected and the expected one requested.
+     */
+    private void handleWindowedChunk(byte[] data) {
+        if (uploadData == null || uploadType != UPLOAD_WINDOWED || data.length < 3) {
+            return;
+        }
+        int chunkNo = readInt(data, 1, 2);
+        if (chunkNo == nextWindowedChunk && uploadData.size() + data.length - 3 <= uploadSize) {
+            uploadData.write(data, 3, data.length - 3);
+            nextWindowedChunk++;
+            reply(new byte[]{WatchConstants.OSSW_RX_COMMAND_UPLOAD_CHUNK_ACK, (byte) (nextWindowedChunk >> 8), (byte) nextWindowedChunk});
+        } else if (chunkNo > nextWindowedChunk) {
+            reply(new byte[]{WatchConstants.OSSW_RX_COMMAND_UPLOAD_CHUNK_NACK, (byte) (nextWindowedChunk >> 8), (byte) nextWindowedChunk});
+        } else {
+            // retransmitted chunk, its ACK was lost
+            reply(new byte[]{WatchConstants.OSSW_RX_COMMAND_UPLOAD_CHUNK_ACK, (byte) (nextWindowedChunk >> 8), (byte) nextWindowedChunk});
+        }
+    }
+
+    private int initResumableUpload(byte[] data) {
+        if (!hasCapability(WatchConstants.FW_CAPABILITY_RESUMABLE_UPLOAD)) {
+            return STATUS_ERROR;
+        }
+        int size = readInt(data, 1, 3);
+        int hash = readInt(data, 4, 4);
+        int offset = readInt(data, 8, 3);
+        String fileName = readString(data, 11);
+        if (offset > 0) {
+            if (resumableData == null || !fileName.equals(resumableFileName) || hash != resumableHash
+                    || resumableData.size() < offset) {
+                return STATUS_ERROR;
+            }
+            // chunks received after the last acknowledged one are sent again
+            byte[] kept = Arrays.copyOf(resumableData.toByteArray(), offset);
+            resumableData = new ByteArrayOutputStream(size);
+            resumableData.write(kept, 0, kept.length);
+        } else {
+            resumableData = new ByteArrayOutputStream(size);
+        }
+        resumableFileName = fileName;
+        resumableHash = hash;
+        uploadType = UPLOAD_RESUMABLE;
+        uploadFileName = fileName;
+        uploadSize = size;
+        uploadData = resumableData;
+        // resumable upload is never encoded
+        uploadDecodedSize = -1;
+        nextUploadDecodedSize = -1;
+        return STATUS_OK;
+    }
+
+    private int handleResumableChunk(byte[] data) {
+        if (uploadData == null || uploadType != UPLOAD_RESUMABLE || data.length < 6) {
+            return STATUS_ERROR;
+        }
+        int offset = readInt(data, 1, 3);
+        int crc = readInt(data, 4, 2);
+        int chunkSize = data.length - 6;
+        if (offset != uploadData.size() || offset + chunkSize > uploadSize) {
+            return STATUS_ERROR;
+        }
+        if (Crc16.compute(data, 6, chunkSize) != crc) {
+            return WatchConstants.COMMAND_ACK_CHUNK_CRC_ERROR;
+        }
+        uploadData.write(data, 6, chunkSize);
+        return STATUS_OK;
+    }
+
+    /**
+     * Applies patch built by {@link WatchSetPatchBuilder} to the current file content.
+     *
+     * @return New file content or null if the patch doesn't match the file.
+     */
+    private static byte[] applyPatch(byte[] oldData, byte[] patch) {
+        if (oldData == null || patch.length < 11 || readInt(patch, 0, 4) != crc(oldData)) {
+            return null;
+        }
+        int newSize = readInt(patch, 4, 3);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(newSize);
+        int ptr = 11;
+        try {
+            while (true) {
+                int operation = patch[ptr++] & 0xFF;
+                if (operation == WatchSetPatchBuilder.PATCH_OPERATION_END) {
+                    break;
+                } else if (operation == WatchSetPatchBuilder.PATCH_OPERATION_COPY) {
+                    int offset = readInt(patch, ptr, 3);
+                    int length = readInt(patch, ptr + 3, 3);
+                    os.write(oldData, offset, length);
+                    ptr += 6;
+                } else if (operation == WatchSetPatchBuilder.PATCH_OPERATION_INSERT) {
+                    int length = readInt(patch, ptr, 3);
+                    os.write(patch, ptr + 3, length);
+                    ptr += 3 + length;
+                } else {
+                    return null;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        byte[] newData = os.toByteArray();
+        if (newData.length != newSize || readInt(patch, 7, 4) != crc(newData)) {
+            return null;
+        }
+        return newData;
+    }
+
+    /**
+     * Handles commands of the batch in order.
+     *
+     * @return Status of the first failed command or OK.
+     */
+    private int handleBatch(byte[] data) {
+        int ptr = 1;
+        int status = STATUS_OK;
+        while (ptr < data.length) {
+            int length = data[ptr] & 0xFF;
+            if (length == 0 || ptr + 1 + length > data.length) {
+                return STATUS_ERROR;
+            }
+            byte[] batched = Arrays.copyOfRange(data, ptr + 1, ptr + 1 + length);
+            int batchedStatus = batched[0] == 0x10 ? setTime(batched) : handleCommand(batched);
+            if (status == STATUS_OK && batchedStatus != STATUS_OK) {
+                status = batchedStatus;
+            }
+            ptr += 1 + length;
+        }
+        return status;
+    }
+
+    private int setTime(byte[] data) {
+        if (data.length < 5) {
+            return STATUS_ERROR;
+        }
+        time = readInt(data, 1, 4);
+        return STATUS_OK;
+    }
+
+    private int handleExtParams(byte[] data) {
+        int ptr = 1;
+        while (ptr + 2 <= data.length) {
+            int paramId = data[ptr] & 0xFF;
+            int size = data[ptr + 1] & 0xFF;
+            if (ptr + 2 + size > data.length) {
+                return STATUS_ERROR;
+            }
+            extParams.put(paramId, Arrays.copyOfRange(data, ptr + 2, ptr + 2 + size));
+            ptr += 2 + size;
+        }
+        return ptr == data.length ? STATUS_OK : STATUS_ERROR;
+    }
+
+    private int handleExtParamsDelta(byte[] data) {
+        int[] pos = {1};
+        try {
+            while (pos[0] < data.length) {
+                int paramId = data[pos[0]++] & 0xFF;
+                byte[] old = extParams.get(paramId);
+                int encoding = data[pos[0]++];
+                switch (encoding) {
+                    case ExtParamDeltaEncoder.ENCODING_FULL:
+                        int size = data[pos[0]++] & 0xFF;
+                        extParams.put(paramId, Arrays.copyOfRange(data, pos[0], pos[0] + size));
+                        pos[0] += size;
+                        break;
+                    case ExtParamDeltaEncoder.ENCODING_NUMBER_DELTA:
+                        if (old == null) {
+                            return STATUS_ERROR;
+                        }
+                        int value = 0;
+                        for (byte b : old) {
+                            value = value << 8 | b & 0xFF;
+                        }
+                        value += ExtParamDeltaEncoder.unzigzag(ExtParamDeltaEncoder.readVarint(data, pos));
+                        byte[] number = new byte[old.length];
+                        for (int i = 0; i < number.length; i++) {
+                            number[i] = (byte) (value >> (8 * (number.length - i - 1)));
+                        }
+                        extParams.put(paramId, number);
+                        break;
+                    case ExtParamDeltaEncoder.ENCODING_STRING_PATCH:
+                        int prefix = ExtParamDeltaEncoder.readVarint(data, pos);
+                        int suffix = ExtParamDeltaEncoder.readVarint(data, pos);
+                        int length = ExtParamDeltaEncoder.readVarint(data, pos);
+                        if (old == null || prefix + suffix > old.length) {
+                            return STATUS_ERROR;
+                        }
+                        ByteArrayOutputStream string = new ByteArrayOutputStream(prefix + length + suffix);
+                        string.write(old, 0, prefix);
+                        string.write(data, pos[0], length);
+                        string.write(old, old.length - suffix, suffix);
+                        extParams.put(paramId, string.toByteArray());
+                        pos[0] += length;
+                        break;
+                    default:
+                        return STATUS_ERROR;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return STATUS_ERROR;
+        }
+        return pos[0] == data.length ? STATUS_OK : STATUS_ERROR;
+    }
+
+    private void reply(byte[] data) {
+        if (isLost()) {
+            lostReplies++;
+            return;
+        }
+        sendToHost(data, latency);
+    }
+
+    private boolean isLost() {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    private static int readInt(byte[] data, int offset, int size) {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value = value << 8 | data[offset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private static String readString(byte[] data, int offset) {
+        int end = offset;
+        while (end < data.length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset);
+    }
+
+    public synchronized byte[] getFile(String fileName) {
+        return files.get(fileName);
+    }
+
+    public synchronized List<byte[]> getNotifications() {
+        return new ArrayList<>(notifications);
+    }
+
+    public synchronized byte[] getExtParam(int paramId) {
+        return extParams.get(paramId);
+    }
+
+    public synchronized boolean isConnectionConfirmed() {
+        return connectionConfirmed;
+    }
+
+    public synchronized int getTime() {
+        return time;
+    }
+
+    public synchronized long getReceivedPackets() {
+        return receivedPackets;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public synchronized long getReceivedCommands() {
+        return receivedCommands;
+    }
+
+    public synchronized long getLostPackets() {
+        return lostPackets;
+    }
+
+    public synchronized long getLostReplies() {
+        return lostReplies;
+    }
+}
@@ -0,0 +1,117 @@
+package com.althink.android.ossw.service.ble;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PacketWriteQueueTest {
+
+    private static final String CHARACTERISTIC = "tx";
+
+    private final PacketPool packetPool = new PacketPool(8);
+    private final PacketWriteQueue<String> queue = new PacketWriteQueue<>(4, packetPool);
+    private final PacketWriteQueue.Entry<String> write = new PacketWriteQueue.Entry<>();
+
+    @Test
+    public void startsWriterOnlyWhenIdle() throws Exception {
+        assertTrue(queue.put(CHARACTERISTIC, new byte[1], false, null));
+        assertFalse(queue.put(CHARACTERISTIC, new byte[1], false, null));
+
+        assertTrue(queue.poll(write));
+        assertTrue(queue.poll(write));
+        assertFalse(queue.poll(write));
+
+        assertTrue(queue.put(CHARACTERISTIC, new byte[1], false, null));
+    }
+
+    @Test
+    public void pollsWritesInOrderAcrossRingEnd() throws Exception {
+        PacketWriteFailureHandler handler = new PacketWriteFailureHandler() {
+            @Override
+            public void handleWriteFailure() {
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            byte[] first = {(byte) i};
+            byte[] second = {(byte) (i + 100)};
+            queue.put(CHARACTERISTIC, first, false, handler);
+            queue.put(CHARACTERISTIC, second, false, null);
+
+            assertTrue(queue.poll(write));
+            assertSame(first, write.getPacket());
+            assertSame(handler, write.getFailureHandler());
+            assertEquals(CHARACTERISTIC, write.getCharacteristic());
+            queue.finish(write);
+            assertTrue(queue.poll(write));
+            assertSame(second, write.getPacket());
+            assertNull(write.getFailureHandler());
+            queue.finish(write);
+        }
+        assertFalse(queue.poll(write));
+    }
+
+    @Test
+    public void recyclesPooledPacketsOnly() throws Exception {
+        byte[] pooled = packetPool.obtain(20);
+        byte[] standalone = new byte[20];
+        queue.put(CHARACTERISTIC, standalone, false, null);
+        queue.put(CHARACTERISTIC, pooled, true, null);
+
+        queue.poll(write);
+        queue.finish(write);
+        queue.poll(write);
+        queue.finish(write);
+
+        assertNull(write.getPacket());
+        assertSame(pooled, packetPool.obtain(20));
+        assertEquals(1, packetPool.getReusedPackets());
+    }
+
+    @Test
+    public void clearRecyclesDroppedPackets() throws Exception {
+        byte[] pooled = packetPool.obtain(20);
+        queue.put(CHARACTERISTIC, pooled, true, null);
+        queue.put(CHARACTERISTIC, packetPool.obtain(20), true, null);
+
+        queue.clear();
+
+        assertEquals(0, queue.size());
+        assertFalse(queue.poll(write));
+        assertSame(pooled, packetPool.obtain(20));
+        assertEquals(2, packetPool.getAllocatedPackets());
+        assertTrue(queue.put(CHARACTERISTIC, new byte[1], false, null));
+    }
+
+    @Test
+    public void blocksProducerWhileFull() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            queue.put(CHARACTERISTIC, new byte[1], false, null);
+        }
+        final AtomicBoolean queued = new AtomicBoolean();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(CHARACTERISTIC, new byte[1], false, null);
+                    queued.set(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertFalse(queued.get());
+
+        queue.poll(write);
+        producer.join(1000);
+        assertTrue(queued.get());
+        assertEquals(4, queue.size());
+    }
+}
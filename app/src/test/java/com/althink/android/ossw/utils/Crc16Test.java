@@ -0,0 +1,29 @@
+package com.althink.android.ossw.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class Crc16Test {
+
+    @Test
+    public void computesCheckValue() throws Exception {
+        byte[] data = "123456789".getBytes("US-ASCII");
+
+        assertEquals(0x29B1, Crc16.compute(data, 0, data.length));
+    }
+
+    @Test
+    public void computesKnownValues() throws Exception {
+        assertEquals(0xFFFF, Crc16.compute(new byte[0], 0, 0));
+        assertEquals(0xE1F0, Crc16.compute(new byte[]{0}, 0, 1));
+        assertEquals(0xB915, Crc16.compute("A".getBytes("US-ASCII"), 0, 1));
+    }
+
+    @Test
+    public void computesRangeOfArray() throws Exception {
+        byte[] data = "xx123456789yy".getBytes("US-ASCII");
+
+        assertEquals(0x29B1, Crc16.compute(data, 2, 9));
+    }
+}
@@ -0,0 +1,90 @@
+package com.althink.android.ossw.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LzssTest {
+
+    @Test
+    public void roundTripsEmptyData() {
+        byte[] compressed = Lzss.compress(new byte[0]);
+
+        assertEquals(0, Lzss.decompress(compressed, 0).length);
+    }
+
+    @Test
+    public void roundTripsIncompressibleData() {
+        byte[] data = randomBytes(4096, 1);
+
+        byte[] compressed = Lzss.compress(data);
+
+        // a flags byte per 8 literals at most
+        assertTrue(compressed.length <= data.length + (data.length + 7) / 8);
+        assertArrayEquals(data, Lzss.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void roundTripsRunLongerThanWindow() {
+        byte[] data = new byte[5 * Lzss.WINDOW_SIZE + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0x55;
+        }
+
+        byte[] compressed = Lzss.compress(data);
+
+        assertTrue(compressed.length < data.length / 10);
+        assertArrayEquals(data, Lzss.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void roundTripsPatternLongerThanWindow() {
+        byte[] pattern = randomBytes(Lzss.WINDOW_SIZE - 24, 2);
+        byte[] data = new byte[4 * pattern.length + 5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+
+        byte[] compressed = Lzss.compress(data);
+
+        assertTrue(compressed.length < 2 * pattern.length);
+        assertArrayEquals(data, Lzss.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void usesMatchAtWindowBoundary() {
+        byte[] data = repeatedAfter(Lzss.WINDOW_SIZE);
+
+        byte[] compressed = Lzss.compress(data);
+
+        // the repeated part is encoded as a match instead of 66 literals
+        assertTrue(compressed.length < Lzss.compress(repeatedAfter(Lzss.WINDOW_SIZE + 1)).length);
+        assertArrayEquals(data, Lzss.decompress(compressed, data.length));
+    }
+
+    @Test
+    public void roundTripsRepeatBeyondWindow() {
+        byte[] data = repeatedAfter(Lzss.WINDOW_SIZE + 1);
+
+        assertArrayEquals(data, Lzss.decompress(Lzss.compress(data), data.length));
+    }
+
+    /**
+     * Random data followed by a copy of its first {@link Lzss#MAX_MATCH} bytes at the given distance.
+     */
+    private static byte[] repeatedAfter(int distance) {
+        byte[] data = randomBytes(distance + Lzss.MAX_MATCH, 3);
+        System.arraycopy(data, 0, data, distance, Lzss.MAX_MATCH);
+        return data;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
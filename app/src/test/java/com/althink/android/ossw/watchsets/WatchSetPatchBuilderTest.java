@@ -0,0 +1,193 @@
+package com.althink.android.ossw.watchsets;
+
+import com.althink.android.ossw.watch.WatchConstants;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WatchSetPatchBuilderTest {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int PATCH_HEADER_SIZE = 11;
+
+    @Test
+    public void splitsTablesIntoEntries() {
+        byte[] screen1 = randomBytes(100, 1);
+        byte[] screen2 = randomBytes(50, 2);
+        byte[] resource = randomBytes(300, 3);
+        byte[] data = watchSet(table(2, screen1, screen2), table(3, resource));
+
+        List<int[]> regions = WatchSetPatchBuilder.splitIntoRegions(data);
+
+        assertNotNull(regions);
+        assertContiguous(regions, data.length);
+        int screensStart = HEADER_SIZE + 3;
+        int screensData = screensStart + 1 + 2 * 2;
+        assertRegion(regions, screensStart, 1 + 2 * 2);
+        assertRegion(regions, screensData, screen1.length);
+        assertRegion(regions, screensData + screen1.length, screen2.length);
+        int resourcesStart = screensData + screen1.length + screen2.length + 3;
+        assertRegion(regions, resourcesStart, 1 + 3);
+        assertRegion(regions, resourcesStart + 1 + 3, resource.length);
+    }
+
+    @Test
+    public void rejectsDataBeforeFirstTableEntry() {
+        byte[] screens = table(2, randomBytes(100, 1), randomBytes(50, 2));
+        // first entry starts one byte after the offsets table
+        screens[2]++;
+        screens[4]++;
+
+        assertNull(WatchSetPatchBuilder.splitIntoRegions(watchSet(screens, table(3))));
+    }
+
+    @Test
+    public void rejectsDataOfEmptyTable() {
+        byte[] resources = new byte[]{0, 1, 2, 3};
+
+        assertNull(WatchSetPatchBuilder.splitIntoRegions(watchSet(table(2), resources)));
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = watchSet(table(2, randomBytes(100, 1)), table(3, randomBytes(300, 3)));
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        assertNull(WatchSetPatchBuilder.splitIntoRegions(truncated));
+        assertNull(WatchSetPatchBuilder.buildPatch(data, truncated));
+        assertNull(WatchSetPatchBuilder.buildPatch(truncated, data));
+    }
+
+    @Test
+    public void copiesUnchangedEntries() {
+        byte[] screen1 = randomBytes(1000, 1);
+        byte[] screen2 = randomBytes(1000, 2);
+        byte[] changedScreen2 = randomBytes(100, 3);
+        byte[] resource1 = randomBytes(3000, 4);
+        byte[] resource2 = randomBytes(2000, 5);
+        byte[] oldData = watchSet(table(2, screen1, screen2), table(3, resource1, resource2));
+        // changed screen and reordered resources
+        byte[] newData = watchSet(table(2, screen1, changedScreen2), table(3, resource2, resource1));
+
+        byte[] patch = WatchSetPatchBuilder.buildPatch(oldData, newData);
+
+        assertNotNull(patch);
+        assertArrayEquals(newData, applyPatch(oldData, patch));
+        assertTrue(patch.length < PATCH_HEADER_SIZE + changedScreen2.length + 100);
+    }
+
+    @Test
+    public void insertsWholeDataWithoutCommonEntries() {
+        byte[] oldData = watchSet(table(2, randomBytes(500, 1)), table(3, randomBytes(500, 2)));
+        byte[] newData = watchSet(table(2, randomBytes(400, 3)), table(3, randomBytes(600, 4), randomBytes(10, 5)));
+
+        byte[] patch = WatchSetPatchBuilder.buildPatch(oldData, newData);
+
+        assertNotNull(patch);
+        assertArrayEquals(newData, applyPatch(oldData, patch));
+    }
+
+    private static void assertContiguous(List<int[]> regions, int length) {
+        int ptr = 0;
+        for (int[] region : regions) {
+            assertEquals(ptr, region[0]);
+            assertTrue(region[1] > 0);
+            ptr += region[1];
+        }
+        assertEquals(length, ptr);
+    }
+
+    private static void assertRegion(List<int[]> regions, int offset, int length) {
+        for (int[] region : regions) {
+            if (region[0] == offset) {
+                assertEquals(length, region[1]);
+                return;
+            }
+        }
+        throw new AssertionError("No region at " + offset);
+    }
+
+    /**
+     * Applies the patch like the watch does.
+     */
+    private static byte[] applyPatch(byte[] oldData, byte[] patch) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int ptr = PATCH_HEADER_SIZE;
+        while (true) {
+            int operation = patch[ptr++] & 0xFF;
+            if (operation == WatchSetPatchBuilder.PATCH_OPERATION_END) {
+                break;
+            } else if (operation == WatchSetPatchBuilder.PATCH_OPERATION_COPY) {
+                os.write(oldData, readInt(patch, ptr, 3), readInt(patch, ptr + 3, 3));
+                ptr += 6;
+            } else {
+                assertEquals(WatchSetPatchBuilder.PATCH_OPERATION_INSERT, operation);
+                int length = readInt(patch, ptr, 3);
+                os.write(patch, ptr + 3, length);
+                ptr += 3 + length;
+            }
+        }
+        assertEquals(patch.length, ptr);
+        assertEquals(readInt(patch, 4, 3), os.size());
+        return os.toByteArray();
+    }
+
+    private static int readInt(byte[] data, int offset, int size) {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value = value << 8 | data[offset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    private static byte[] watchSet(byte[] screens, byte[] resources) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(randomBytes(HEADER_SIZE, 0), 0, HEADER_SIZE);
+        writeSection(os, WatchConstants.WATCH_SET_SECTION_SCREENS, screens);
+        writeSection(os, WatchConstants.WATCH_SET_SECTION_RESOURCES, resources);
+        os.write(WatchConstants.WATCH_SET_END_OF_DATA);
+        return os.toByteArray();
+    }
+
+    private static void writeSection(ByteArrayOutputStream os, int type, byte[] data) {
+        os.write(type);
+        os.write(data.length >> 8);
+        os.write(data.length & 0xFF);
+        os.write(data, 0, data.length);
+    }
+
+    /**
+     * Table section with entry offsets relative to the section start.
+     */
+    private static byte[] table(int offsetSize, byte[]... entries) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(entries.length);
+        int offset = 1 + entries.length * offsetSize;
+        for (byte[] entry : entries) {
+            for (int i = offsetSize - 1; i >= 0; i--) {
+                os.write((offset >> (8 * i)) & 0xFF);
+            }
+            offset += entry.length;
+        }
+        for (byte[] entry : entries) {
+            os.write(entry, 0, entry.length);
+        }
+        return os.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}